@@ -0,0 +1,81 @@
+package ascii_art;
+
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of every dither mode of the char mapping. A noisy horizontal gradient is mapped
+ * to the default digit charset with AsciiArtAlgorithm.mapToChars, and the best of several runs is
+ * printed for every grid size and dither mode. It lives in the bench source root, which is compiled
+ * with src but not shipped: javac -d out $(find src bench -name '*.java'), then
+ * java -cp out ascii_art.DitherBenchmark.
+ */
+public final class DitherBenchmark {
+    private static final int[] GRID_SIZES = new int[]{512, 2048};
+    private static final char[] CHAR_SET = new char[]{'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+    private static final double NOISE_AMPLITUDE = 0.1;
+    private static final double NOISE_CENTER = 0.5;
+    private static final long SEED = 42;
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final String HEADLESS_PROPERTY = "java.awt.headless";
+    private static final String GRID_MESSAGE = "%dx%d:";
+    private static final String MODE_MESSAGE = " %s %.2f ms";
+    private static final String MODE_SEPARATOR = ",";
+
+    private DitherBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark and prints the best time of every grid size and dither mode.
+     *
+     * @param args command line arguments (not used).
+     */
+    public static void main(String[] args) {
+        System.setProperty(HEADLESS_PROPERTY, Boolean.TRUE.toString());
+        CharMatcherSnapshot snapshot = new SubImgCharMatcher(CHAR_SET).snapshot();
+        for (int size : GRID_SIZES) {
+            double[][] brightness = noisyGradient(size);
+            StringBuilder line = new StringBuilder(String.format(GRID_MESSAGE, size, size));
+            DitherMode[] modes = DitherMode.values();
+            for (int i = 0; i < modes.length; i++) {
+                line.append(String.format(MODE_MESSAGE, modes[i].name().toLowerCase(Locale.ROOT),
+                        bestMillis(brightness, snapshot, modes[i])));
+                if (i < modes.length - 1) {
+                    line.append(MODE_SEPARATOR);
+                }
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static double bestMillis(double[][] brightness, CharMatcherSnapshot snapshot, DitherMode ditherMode) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            AsciiArtAlgorithm.mapToChars(brightness, snapshot, ditherMode);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long start = System.nanoTime();
+            AsciiArtAlgorithm.mapToChars(brightness, snapshot, ditherMode);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / NANOS_PER_MILLI;
+    }
+
+    private static double[][] noisyGradient(int size) {
+        Random random = new Random(SEED);
+        double[][] brightness = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                double value = (double) j / size + (random.nextDouble() - NOISE_CENTER) * NOISE_AMPLITUDE;
+                brightness[i][j] = Math.max(0, Math.min(1, value));
+            }
+        }
+        return brightness;
+    }
+}
@@ -0,0 +1,156 @@
+package ascii_art;
+
+import image.TiledImageSource;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exercises the retries and timeouts of ShardCoordinator with fake workers: one that always dies,
+ * one that dies on its first start and then runs a real ShardWorker, and one that hangs without
+ * answering. Every scenario prints PASS or FAIL, and the harness exits with a non-zero status if any
+ * failed. It needs sh and sleep on the path, and lives in the bench source root, which is compiled with
+ * src but not shipped: javac -d out $(find src bench -name '*.java'), then
+ * java -cp out ascii_art.ShardFaultHarness [image].
+ */
+public final class ShardFaultHarness {
+    private static final String DEFAULT_IMAGE = "images/cat.jpeg";
+    private static final int WORKER_COUNT = 2;
+    private static final int RESOLUTION = 64;
+    private static final char[] CHAR_SET = new char[]{'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+    private static final long STRIP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long HANG_SECONDS = TimeUnit.MINUTES.toSeconds(10);
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int FAILURE_STATUS = 1;
+    private static final String SHELL = "sh";
+    private static final String SHELL_COMMAND_OPTION = "-c";
+    private static final String DIE_SCRIPT = "exit 1";
+    private static final String DIE_ONCE_SCRIPT = "if mkdir '%s' 2>/dev/null; then exit 1; fi; exec %s";
+    private static final String SLEEP = "sleep";
+    private static final String MARKER_DIR = "marker";
+    private static final String TEMP_DIR_PREFIX = "shard-fault";
+    private static final String QUOTED_ARGUMENT = "'%s'";
+    private static final String ARGUMENT_SEPARATOR = " ";
+    private static final String HEADLESS_PROPERTY = "java.awt.headless";
+    private static final String PASS_MESSAGE = "PASS %s (%d ms): %s";
+    private static final String FAIL_MESSAGE = "FAIL %s (%d ms): %s";
+    private static final String DYING_SCENARIO = "dying worker";
+    private static final String DYING_ONCE_SCENARIO = "worker dying once";
+    private static final String HANGING_SCENARIO = "hanging worker";
+    private static final String EXPECTED_FAILURE_MESSAGE = "failed as expected: %s";
+    private static final String UNEXPECTED_SUCCESS_MESSAGE = "converted although every worker failed";
+    private static final String TOO_FAST_MESSAGE = "failed before its timeouts ran out: %s";
+    private static final String SAME_RESULT_MESSAGE = "retried strip matches the real workers";
+    private static final String DIFFERENT_RESULT_MESSAGE = "retried strip differs from the real workers";
+    private static final String UNEXPECTED_FAILURE_MESSAGE = "did not convert: %s";
+
+    private ShardFaultHarness() {
+    }
+
+    /**
+     * Runs every fault scenario against the given image and prints its outcome.
+     *
+     * @param args the image file, images/cat.jpeg if not given.
+     * @throws IOException if the image could not be read or the temporary directory not created.
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty(HEADLESS_PROPERTY, Boolean.TRUE.toString());
+        String imagePath = args.length > 0 ? args[0] : DEFAULT_IMAGE;
+        Rectangle view;
+        try (TiledImageSource source = new TiledImageSource(imagePath)) {
+            view = new Rectangle(source.getWidth(), source.getHeight());
+        }
+        CharMatcherSnapshot snapshot = new SubImgCharMatcher(CHAR_SET).snapshot();
+        boolean passed = dyingWorker(imagePath, view, snapshot);
+        passed &= dyingOnceWorker(imagePath, view, snapshot);
+        passed &= hangingWorker(imagePath, view, snapshot);
+        if (!passed) {
+            System.exit(FAILURE_STATUS);
+        }
+    }
+
+    /*
+     * A worker that exits before answering fails every attempt of its strip.
+     */
+    private static boolean dyingWorker(String imagePath, Rectangle view, CharMatcherSnapshot snapshot) {
+        List<String> command = List.of(SHELL, SHELL_COMMAND_OPTION, DIE_SCRIPT);
+        long start = System.nanoTime();
+        try (ShardCoordinator coordinator = new ShardCoordinator(WORKER_COUNT, command, STRIP_TIMEOUT_MILLIS)) {
+            convert(coordinator, imagePath, view, snapshot);
+            return report(false, DYING_SCENARIO, start, UNEXPECTED_SUCCESS_MESSAGE);
+        } catch (IOException e) {
+            return report(true, DYING_SCENARIO, start, String.format(EXPECTED_FAILURE_MESSAGE, e.getMessage()));
+        }
+    }
+
+    /*
+     * The first worker started dies, its strip is retried on a fresh worker, and the result must match
+     * real workers that never died.
+     */
+    private static boolean dyingOnceWorker(String imagePath, Rectangle view, CharMatcherSnapshot snapshot)
+            throws IOException {
+        Path tempDir = Files.createTempDirectory(TEMP_DIR_PREFIX);
+        Path marker = tempDir.resolve(MARKER_DIR);
+        List<String> command = List.of(SHELL, SHELL_COMMAND_OPTION,
+                String.format(DIE_ONCE_SCRIPT, marker, quote(ShardCoordinator.defaultWorkerCommand())));
+        long start = System.nanoTime();
+        try (ShardCoordinator coordinator = new ShardCoordinator(WORKER_COUNT, command, STRIP_TIMEOUT_MILLIS);
+             ShardCoordinator reference = new ShardCoordinator(WORKER_COUNT)) {
+            char[][] retried = convert(coordinator, imagePath, view, snapshot);
+            char[][] expected = convert(reference, imagePath, view, snapshot);
+            boolean same = Arrays.deepEquals(retried, expected);
+            return report(same, DYING_ONCE_SCENARIO, start, same ? SAME_RESULT_MESSAGE : DIFFERENT_RESULT_MESSAGE);
+        } catch (IOException e) {
+            return report(false, DYING_ONCE_SCENARIO, start, String.format(UNEXPECTED_FAILURE_MESSAGE,
+                    e.getMessage()));
+        } finally {
+            Files.deleteIfExists(marker);
+            Files.deleteIfExists(tempDir);
+        }
+    }
+
+    /*
+     * A worker that never answers is killed by the watchdog on every attempt, so the strip fails only
+     * after all of its timeouts ran out.
+     */
+    private static boolean hangingWorker(String imagePath, Rectangle view, CharMatcherSnapshot snapshot) {
+        List<String> command = List.of(SLEEP, Long.toString(HANG_SECONDS));
+        long start = System.nanoTime();
+        try (ShardCoordinator coordinator = new ShardCoordinator(WORKER_COUNT, command, STRIP_TIMEOUT_MILLIS)) {
+            convert(coordinator, imagePath, view, snapshot);
+            return report(false, HANGING_SCENARIO, start, UNEXPECTED_SUCCESS_MESSAGE);
+        } catch (IOException e) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            boolean timedOut = elapsedMillis >= MAX_ATTEMPTS * STRIP_TIMEOUT_MILLIS;
+            return report(timedOut, HANGING_SCENARIO, start,
+                    String.format(timedOut ? EXPECTED_FAILURE_MESSAGE : TOO_FAST_MESSAGE, e.getMessage()));
+        }
+    }
+
+    private static char[][] convert(ShardCoordinator coordinator, String imagePath, Rectangle view,
+                                    CharMatcherSnapshot snapshot) throws IOException {
+        return coordinator.run(imagePath, view, RESOLUTION, snapshot, DitherMode.NONE, ToneMapper.NONE);
+    }
+
+    private static String quote(List<String> command) {
+        List<String> quoted = new ArrayList<>();
+        for (String argument : command) {
+            quoted.add(String.format(QUOTED_ARGUMENT, argument));
+        }
+        return String.join(ARGUMENT_SEPARATOR, quoted);
+    }
+
+    private static boolean report(boolean passed, String scenario, long start, String detail) {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(String.format(passed ? PASS_MESSAGE : FAIL_MESSAGE, scenario, elapsedMillis, detail));
+        return passed;
+    }
+}
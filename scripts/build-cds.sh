@@ -0,0 +1,29 @@
+#!/bin/sh
+# Compiles the sources into ascii-art.jar and dumps an AppCDS archive (shell.jsa) of the classes the
+# Shell loads, so later runs start with them already parsed and verified:
+#   java -XX:SharedArchiveFile=shell.jsa -jar ascii-art.jar
+# With PRELOAD_GLYPHS=1 the training run also renders the glyph cache and converts the default
+# image, so the AWT, font and ImageIO classes end up in the archive too.
+set -e
+cd "$(dirname "$0")/.."
+
+OUT_DIR=out
+JAR=ascii-art.jar
+ARCHIVE=shell.jsa
+
+rm -rf "$OUT_DIR" "$JAR" "$ARCHIVE"
+javac -d "$OUT_DIR" $(find src -name '*.java')
+# CDS only archives classes loaded from jar files
+jar --create --file "$JAR" --main-class ascii_art.Shell -C "$OUT_DIR" .
+
+if [ "$PRELOAD_GLYPHS" = "1" ]; then
+    TRAINING_COMMANDS='add all\nasciiArt\nexit\n'
+    TRAINING_PROPERTIES=-Dascii_art.preloadGlyphs=true
+else
+    TRAINING_COMMANDS='exit\n'
+    TRAINING_PROPERTIES=
+fi
+printf "$TRAINING_COMMANDS" | java -XX:ArchiveClassesAtExit="$ARCHIVE" $TRAINING_PROPERTIES \
+    -jar "$JAR" > /dev/null
+
+echo "Wrote $ARCHIVE"
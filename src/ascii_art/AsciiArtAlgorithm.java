@@ -1,8 +1,14 @@
 package ascii_art;
 
-import image.Image;
 import image.PaddedImage;
+import image_char_matching.CharMatcherSnapshot;
 import image_char_matching.SubImgCharMatcher;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 
 
@@ -12,10 +18,24 @@ import image_char_matching.SubImgCharMatcher;
  * based on brightness.
  */
 public class AsciiArtAlgorithm {
+    private static final double RIGHT_ERROR_WEIGHT = 7.0 / 16;
+    private static final double BELOW_LEFT_ERROR_WEIGHT = 3.0 / 16;
+    private static final double BELOW_ERROR_WEIGHT = 5.0 / 16;
+    private static final double BELOW_RIGHT_ERROR_WEIGHT = 1.0 / 16;
+    private static final int[][] BAYER_MATRIX = {
+            {0, 8, 2, 10},
+            {12, 4, 14, 6},
+            {3, 11, 1, 9},
+            {15, 7, 13, 5}};
+    private static final int BAYER_SIZE = 4;
+    private static final double BAYER_CELLS = BAYER_SIZE * BAYER_SIZE;
+    private static final double HALF = 0.5;
+
     private SubImgCharMatcher subImgCharMatcher;
     private PaddedImage paddedImage;
-    private Image[][]subImages;
-    //we should remember to be effective and save the last run to save calculations
+    private int resolution;
+    private DitherMode ditherMode;
+    private ToneMapper toneMapper;
 
 
     /**
@@ -26,28 +46,138 @@ public class AsciiArtAlgorithm {
      * @param resolution the resolution to divide the image into sub-images.
      */
     public AsciiArtAlgorithm(SubImgCharMatcher subImgCharMatcher, PaddedImage paddedImage, int resolution){
+        this(subImgCharMatcher, paddedImage, resolution, DitherMode.NONE);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object that dithers the mapping of brightness to characters.
+     *
+     * @param subImgCharMatcher the character matcher used to map image brightness to characters.
+     * @param paddedImage the image to be converted into ASCII art.
+     * @param resolution the resolution to divide the image into sub-images.
+     * @param ditherMode the way to spread the error of mapping brightness to characters.
+     */
+    public AsciiArtAlgorithm(SubImgCharMatcher subImgCharMatcher, PaddedImage paddedImage, int resolution,
+                             DitherMode ditherMode){
+        this(subImgCharMatcher, paddedImage, resolution, ditherMode, ToneMapper.NONE);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object that tone maps the block brightness before matching it.
+     *
+     * @param subImgCharMatcher the character matcher used to map image brightness to characters.
+     * @param paddedImage the image to be converted into ASCII art.
+     * @param resolution the resolution to divide the image into sub-images.
+     * @param ditherMode the way to spread the error of mapping brightness to characters.
+     * @param toneMapper the remapping of the block brightness.
+     */
+    public AsciiArtAlgorithm(SubImgCharMatcher subImgCharMatcher, PaddedImage paddedImage, int resolution,
+                             DitherMode ditherMode, ToneMapper toneMapper){
         this.subImgCharMatcher = subImgCharMatcher;
         this.paddedImage = paddedImage;
-        this.subImages = this.paddedImage.divideToSubImages(resolution);
-
+        this.resolution = resolution;
+        this.ditherMode = ditherMode;
+        this.toneMapper = toneMapper;
     }
 
     /**
-     * Runs the ASCII art conversion algorithm. It divides the image into sub-images,
-     * calculates the brightness
-     * of each sub-image, and maps it to a character from the character set.
+     * Runs the ASCII art conversion algorithm. It calculates the brightness of each sub-image of the
+     * padded image, read from its luminance pyramid, and maps it to a character from the character set.
+     * The charset is read from a single snapshot, so edits made while running do not affect the result.
      *
      * @return a 2D character array representing the ASCII art.
      */
     public char[][] run(){
-        char[][] charImage = new char[this.subImages.length][this.subImages[0].length];
-        for(int i = 0; i < subImages.length; i++){
-            for(int j = 0; j < subImages[i].length; j++){
-                double blockBrightness = subImages[i][j].imageBrightness();
-                charImage[i][j] = subImgCharMatcher.getCharByImageBrightness(blockBrightness);
+        StageTimer brightnessTimer = PipelineMetrics.start(Stage.BRIGHTNESS);
+        double[][] blockBrightness = this.paddedImage.blockBrightness(this.resolution);
+        int rows = blockBrightness.length;
+        int cols = blockBrightness[0].length;
+        brightnessTimer.stop((long) rows * cols);
+        this.toneMapper.apply(blockBrightness, this.paddedImage.getLayout());
+
+        StageTimer matchingTimer = PipelineMetrics.start(Stage.MATCHING);
+        char[][] charImage = mapToChars(blockBrightness, this.subImgCharMatcher.snapshot(), this.ditherMode);
+        matchingTimer.stop((long) rows * cols);
+        return charImage;
+    }
+
+    /**
+     * Maps a grid of block brightness values to characters of a charset.
+     *
+     * @param blockBrightness the brightness of every block, normalized to [0, 1].
+     * @param snapshot the charset to map to.
+     * @param ditherMode the way to spread the error of the mapping.
+     * @return a 2D character array of the same dimensions as the brightness grid.
+     */
+    static char[][] mapToChars(double[][] blockBrightness, CharMatcherSnapshot snapshot,
+                               DitherMode ditherMode){
+        if (snapshot.levelCount() < 2){
+            ditherMode = DitherMode.NONE;
+        }
+        switch (ditherMode){
+            case FLOYD_STEINBERG:
+                return errorDiffusionDither(blockBrightness, snapshot);
+            case ORDERED:
+                return orderedDither(blockBrightness, snapshot);
+            default:
+                char[][] charImage = new char[blockBrightness.length][];
+                for(int i = 0; i < blockBrightness.length; i++){
+                    charImage[i] = new char[blockBrightness[i].length];
+                    for(int j = 0; j < blockBrightness[i].length; j++){
+                        charImage[i][j] = snapshot.getCharByImageBrightness(blockBrightness[i][j]);
+                    }
+                }
+                return charImage;
+        }
+    }
+
+    /*
+     * Streams over the grid row by row, keeping only the error pushed to the current and the next row.
+     * Both buffers have a spare cell on each side so the edges need no special casing.
+     */
+    private static char[][] errorDiffusionDither(double[][] blockBrightness, CharMatcherSnapshot snapshot){
+        int rows = blockBrightness.length;
+        int cols = blockBrightness[0].length;
+        char[][] charImage = new char[rows][cols];
+        double[] currentErrors = new double[cols + 2];
+        double[] nextErrors = new double[cols + 2];
+        for(int i = 0; i < rows; i++){
+            for(int j = 0; j < cols; j++){
+                double value = blockBrightness[i][j] + currentErrors[j + 1];
+                int level = snapshot.levelIndexOf(value);
+                charImage[i][j] = snapshot.levelChar(level);
+                double error = value - snapshot.levelBrightness(level);
+                currentErrors[j + 2] += error * RIGHT_ERROR_WEIGHT;
+                nextErrors[j] += error * BELOW_LEFT_ERROR_WEIGHT;
+                nextErrors[j + 1] += error * BELOW_ERROR_WEIGHT;
+                nextErrors[j + 2] += error * BELOW_RIGHT_ERROR_WEIGHT;
             }
+            double[] swap = currentErrors;
+            currentErrors = nextErrors;
+            nextErrors = swap;
+            Arrays.fill(nextErrors, 0);
         }
         return charImage;
     }
+
+    /*
+     * Offsets every block by a Bayer threshold scaled to the mean distance between brightness levels.
+     * Rows do not depend on each other, so they are mapped in parallel.
+     */
+    private static char[][] orderedDither(double[][] blockBrightness, CharMatcherSnapshot snapshot){
+        int rows = blockBrightness.length;
+        int cols = blockBrightness[0].length;
+        double levelSpacing = (snapshot.levelBrightness(snapshot.levelCount() - 1) -
+                snapshot.levelBrightness(0)) / (snapshot.levelCount() - 1);
+        char[][] charImage = new char[rows][cols];
+        IntStream.range(0, rows).parallel().forEach(i -> {
+            int[] thresholds = BAYER_MATRIX[i % BAYER_SIZE];
+            for(int j = 0; j < cols; j++){
+                double offset = ((thresholds[j % BAYER_SIZE] + HALF) / BAYER_CELLS - HALF) * levelSpacing;
+                charImage[i][j] = snapshot.getCharByImageBrightness(blockBrightness[i][j] + offset);
+            }
+        });
+        return charImage;
+    }
 }
 
@@ -0,0 +1,25 @@
+package ascii_art;
+
+/**
+ * A horizontal band of rows of blocks flowing through BandPipeline, together with what the last
+ * stage made of it.
+ *
+ * @param <T> the data of the band.
+ */
+final class Band<T> {
+    final int index;
+    final int firstBlockRow;
+    final int blockRowCount;
+    final T data;
+
+    Band(int index, int firstBlockRow, int blockRowCount, T data) {
+        this.index = index;
+        this.firstBlockRow = firstBlockRow;
+        this.blockRowCount = blockRowCount;
+        this.data = data;
+    }
+
+    <R> Band<R> withData(R data) {
+        return new Band<>(this.index, this.firstBlockRow, this.blockRowCount, data);
+    }
+}
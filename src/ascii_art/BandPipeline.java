@@ -0,0 +1,187 @@
+package ascii_art;
+
+import ascii_output.StreamingAsciiOutput;
+import image.PaddingLayout;
+import image.TiledImageSource;
+import image_char_matching.CharMatcherSnapshot;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Converts an image as a java.util.concurrent.Flow pipeline of horizontal bands of blocks:
+ * the bands are published in order, a brightness stage decodes and averages them, a matching stage maps
+ * them to characters, and a sink puts them back in order and writes them row by row to a
+ * StreamingAsciiOutput. Every stage holds at most a few bands, so a slow output throttles decoding and
+ * the memory used depends on the band and buffer sizes rather than on the height of the image: the image
+ * is read through a TiledImageSource of its own, with a reader per brightness thread and a tile cache
+ * sized to the bands those threads decode at once.
+ * <p>
+ * Bands are a multiple of 4 rows of blocks so ordered dithering matches the whole image conversion;
+ * Floyd-Steinberg error is not carried across bands.
+ */
+public class BandPipeline {
+    static final ThreadFactory DAEMON_THREADS = runnable -> {
+        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    };
+    private static final int BAND_BLOCK_ROWS = 4;
+    private static final int BUFFER_BANDS = 4;
+
+    private final int brightnessParallelism;
+    private final int matchingParallelism;
+
+    /**
+     * Constructs a pipeline with the given number of threads per stage.
+     *
+     * @param brightnessParallelism the number of bands decoded and averaged at once.
+     * @param matchingParallelism the number of bands mapped to characters at once.
+     */
+    public BandPipeline(int brightnessParallelism, int matchingParallelism) {
+        this.brightnessParallelism = brightnessParallelism;
+        this.matchingParallelism = matchingParallelism;
+    }
+
+    /**
+     * @return the number of bands decoded and averaged at once.
+     */
+    public int getBrightnessParallelism() {
+        return this.brightnessParallelism;
+    }
+
+    /**
+     * @return the number of bands mapped to characters at once.
+     */
+    public int getMatchingParallelism() {
+        return this.matchingParallelism;
+    }
+
+    /**
+     * Converts the given part of an image and writes it to the output as the bands are ready.
+     * The output is closed when the conversion ends, and only finished if it succeeds.
+     *
+     * @param imagePath the image file.
+     * @param view the part of the image to pad and convert.
+     * @param resolution the number of characters in a row.
+     * @param snapshot the charset to map to.
+     * @param ditherMode the way to spread the error of the mapping.
+     * @param toneMapper the remapping of the block brightness, which must be per block.
+     * @param output the output to write the rows to.
+     * @throws IOException if an error occurs while decoding.
+     */
+    public void run(String imagePath, Rectangle view, int resolution, CharMatcherSnapshot snapshot,
+                    DitherMode ditherMode, ToneMapper toneMapper, StreamingAsciiOutput output) throws IOException {
+        PaddingLayout layout = new PaddingLayout(view.width, view.height);
+        int blockRows = layout.blockRows(resolution);
+        int bandSourceRows = BAND_BLOCK_ROWS * (layout.getPaddedWidth() / resolution);
+        TiledImageSource source = new TiledImageSource(imagePath,
+                this.brightnessParallelism * TiledImageSource.tilesFor(view.width, bandSourceRows),
+                this.brightnessParallelism);
+        ExecutorService delivery = Executors.newCachedThreadPool(DAEMON_THREADS);
+        SubmissionPublisher<Band<Void>> bands = new SubmissionPublisher<>(delivery, BUFFER_BANDS);
+        try (source; output) {
+            BandProcessor<Void, double[][]> brightnessStage = new BandProcessor<>(delivery, BUFFER_BANDS,
+                    this.brightnessParallelism, band -> {
+                StageTimer timer = PipelineMetrics.start(Stage.BRIGHTNESS);
+                double[][] brightness = layout.stripBrightness(source, view.x, view.y, resolution,
+                        band.firstBlockRow, band.blockRowCount);
+                timer.stop((long) band.blockRowCount * resolution);
+                toneMapper.applyToStrip(brightness, layout, band.firstBlockRow);
+                return brightness;
+            });
+            BandProcessor<double[][], char[][]> matchingStage = new BandProcessor<>(delivery, BUFFER_BANDS,
+                    this.matchingParallelism, band -> {
+                StageTimer timer = PipelineMetrics.start(Stage.MATCHING);
+                char[][] chars = AsciiArtAlgorithm.mapToChars(band.data, snapshot, ditherMode);
+                timer.stop((long) band.blockRowCount * resolution);
+                return chars;
+            });
+            OrderedSink sink = new OrderedSink(output);
+            bands.subscribe(brightnessStage);
+            brightnessStage.subscribe(matchingStage);
+            matchingStage.subscribe(sink);
+            output.begin(resolution);
+            int index = 0;
+            for (int firstBlockRow = 0; firstBlockRow < blockRows && !sink.result.isDone();
+                 firstBlockRow += BAND_BLOCK_ROWS) {
+                bands.submit(new Band<>(index++, firstBlockRow, Math.min(BAND_BLOCK_ROWS, blockRows - firstBlockRow),
+                        null));
+            }
+            bands.close();
+            sink.result.get();
+            output.end();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            bands.close();
+            delivery.shutdown();
+        }
+    }
+
+    /*
+     * Holds the bands that arrive ahead of their turn and writes every band as soon as all the bands
+     * above it are written. It asks for a new band for every band it receives, so it never holds more
+     * than the bands in flight in the stages above.
+     */
+    private static final class OrderedSink implements Flow.Subscriber<Band<char[][]>> {
+        private final StreamingAsciiOutput output;
+        private final Map<Integer, Band<char[][]>> waiting = new TreeMap<>();
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private int nextIndex;
+
+        private OrderedSink(StreamingAsciiOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(BUFFER_BANDS);
+        }
+
+        @Override
+        public void onNext(Band<char[][]> band) {
+            this.waiting.put(band.index, band);
+            Band<char[][]> next;
+            while ((next = this.waiting.remove(this.nextIndex)) != null) {
+                StageTimer timer = PipelineMetrics.start(Stage.OUTPUT);
+                for (char[] row : next.data) {
+                    this.output.row(row);
+                }
+                timer.stop((long) next.blockRowCount * next.data[0].length);
+                this.nextIndex++;
+            }
+            this.subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            this.result.complete(null);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ascii_art;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stage of BandPipeline: it applies a function to the bands it receives on a pool of its own threads
+ * and publishes the results, possibly out of order. It never asks upstream for more bands than it has
+ * free threads, and a thread blocks publishing its result while the downstream buffer is full, so a slow
+ * stage further down throttles every stage above it.
+ *
+ * @param <T> the data of the bands received.
+ * @param <R> the data of the bands published.
+ */
+final class BandProcessor<T, R> extends SubmissionPublisher<Band<R>> implements Flow.Subscriber<Band<T>> {
+    /**
+     * The work of a stage on a single band.
+     */
+    interface BandFunction<T, R> {
+        R apply(Band<T> band) throws Exception;
+    }
+
+    private final int parallelism;
+    private final BandFunction<T, R> function;
+    private final ExecutorService workers;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean upstreamDone;
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * @param deliveryExecutor the executor delivering the published bands downstream.
+     * @param bufferSize the number of published bands that may wait for the next stage.
+     * @param parallelism the number of bands processed at once.
+     * @param function the work on a single band.
+     */
+    BandProcessor(Executor deliveryExecutor, int bufferSize, int parallelism, BandFunction<T, R> function) {
+        super(deliveryExecutor, bufferSize);
+        this.parallelism = parallelism;
+        this.function = function;
+        this.workers = Executors.newFixedThreadPool(parallelism, BandPipeline.DAEMON_THREADS);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(this.parallelism);
+    }
+
+    @Override
+    public void onNext(Band<T> band) {
+        this.inFlight.incrementAndGet();
+        this.workers.execute(() -> {
+            try {
+                submit(band.withData(this.function.apply(band)));
+                this.subscription.request(1);
+            } catch (Exception e) {
+                this.subscription.cancel();
+                closeExceptionally(e);
+                this.workers.shutdown();
+            } finally {
+                if (this.inFlight.decrementAndGet() == 0 && this.upstreamDone) {
+                    finish();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+        this.workers.shutdown();
+    }
+
+    @Override
+    public void onComplete() {
+        this.upstreamDone = true;
+        if (this.inFlight.get() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        close();
+        this.workers.shutdown();
+    }
+}
@@ -0,0 +1,216 @@
+package ascii_art;
+
+import image.PaddingLayout;
+import image.TiledImageSource;
+import image.UniformBlockStats;
+import image_char_matching.CharMatcherSnapshot;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+
+/**
+ * Converts many image files, skipping the ones it has already converted with the same settings.
+ * Converted images are cached by a hash of the bytes of their file together with the settings, so
+ * re-uploads and copies under other names are converted once. Within an image, blocks that are entirely
+ * padding are never read and uniform blocks cost a comparison per pixel, see PaddingLayout.
+ */
+public class BatchConverter {
+    private static final int MAX_CACHED_IMAGES = 64;
+    private static final int BAND_BLOCK_ROWS = 4;
+    private static final int MINIMAL_RES = 2;
+    private static final int CHANGE_RES_FACTOR = 2;
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+    private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+    private static final long HASH_MULTIPLIER = 0xBF58476D1CE4E5B9L;
+    private static final long HASH_FINAL_MULTIPLIER = 0x94D049BB133111EBL;
+    private static final int HASH_SHIFT = 31;
+    private static final int BITS_PER_BYTE = 8;
+    private static final double PERCENT = 100.0;
+    private static final String REPORT_FORMAT = "Converted %d images, %d from cache (%.1f%%). " +
+            "%d of %d blocks uniform (%.1f%%), %d of them padding.";
+
+    private final Map<ConversionKey, char[][]> cache =
+            new LinkedHashMap<>(MAX_CACHED_IMAGES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ConversionKey, char[][]> eldest) {
+                    return size() > MAX_CACHED_IMAGES;
+                }
+            };
+    private final UniformBlockStats blockStats = new UniformBlockStats();
+    private long images;
+    private long cacheHits;
+
+    /**
+     * Converts an image file, or returns the result of an earlier conversion of the same bytes with the
+     * same settings. The arrays returned must not be modified.
+     *
+     * @param file the image file.
+     * @param resolution the number of characters in a row, lowered or raised if the image cannot have it.
+     * @param snapshot the charset to map to.
+     * @param ditherMode the way to spread the error of the mapping.
+     * @param toneMapper the remapping of the block brightness.
+     * @return the ASCII art of the image.
+     * @throws IOException if the file cannot be read or decoded.
+     */
+    public synchronized char[][] convert(Path file, int resolution, CharMatcherSnapshot snapshot,
+                                         DitherMode ditherMode, ToneMapper toneMapper) throws IOException {
+        ConversionKey key = new ConversionKey(contentHash(file), resolution, ditherMode, toneMapper,
+                snapshot.getCharBrightnessMap());
+        char[][] charImage = this.cache.get(key);
+        if (charImage != null) {
+            this.cacheHits++;
+        }
+        else {
+            charImage = convertFile(file, resolution, snapshot, ditherMode, toneMapper);
+            this.cache.put(key, charImage);
+        }
+        this.images++;
+        return charImage;
+    }
+
+    /**
+     * @return the number of images converted so far, the cache hit rate and the share of uniform blocks.
+     */
+    public synchronized String report() {
+        long blocks = this.blockStats.getBlocks();
+        long uniformBlocks = this.blockStats.getUniformBlocks();
+        return String.format(REPORT_FORMAT, this.images, this.cacheHits, percent(this.cacheHits, this.images),
+                uniformBlocks, blocks, percent(uniformBlocks, blocks), this.blockStats.getPaddingBlocks());
+    }
+
+    private char[][] convertFile(Path file, int resolution, CharMatcherSnapshot snapshot,
+                                 DitherMode ditherMode, ToneMapper toneMapper) throws IOException {
+        try (TiledImageSource source = new TiledImageSource(file.toString())) {
+            PaddingLayout layout = new PaddingLayout(source.getWidth(), source.getHeight());
+            if (source.getWidth() < resolution) {
+                resolution = MINIMAL_RES;
+            }
+            while (layout.blockRows(resolution) == 0) {
+                resolution *= CHANGE_RES_FACTOR;
+            }
+            int blockRows = layout.blockRows(resolution);
+            StageTimer brightnessTimer = PipelineMetrics.start(Stage.BRIGHTNESS);
+            double[][] blockBrightness = new double[blockRows][];
+            for (int firstBlockRow = 0; firstBlockRow < blockRows; firstBlockRow += BAND_BLOCK_ROWS) {
+                int blockRowCount = Math.min(BAND_BLOCK_ROWS, blockRows - firstBlockRow);
+                double[][] band = layout.stripBrightness(source, 0, 0, resolution, firstBlockRow, blockRowCount,
+                        this.blockStats);
+                System.arraycopy(band, 0, blockBrightness, firstBlockRow, blockRowCount);
+            }
+            brightnessTimer.stop((long) blockRows * resolution);
+            toneMapper.apply(blockBrightness, layout);
+
+            StageTimer matchingTimer = PipelineMetrics.start(Stage.MATCHING);
+            char[][] charImage = AsciiArtAlgorithm.mapToChars(blockBrightness, snapshot, ditherMode);
+            matchingTimer.stop((long) blockRows * resolution);
+            return charImage;
+        }
+    }
+
+    /*
+     * A 64 bit hash of the bytes of a file, read 8 bytes at a time and mixed with multiply and
+     * xor-shift steps. It is not cryptographic, collisions are only guarded against by the file length.
+     */
+    private static FileDigest contentHash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long hash = HASH_SEED;
+            long length = 0;
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                length += buffer.remaining();
+                while (buffer.remaining() >= Long.BYTES) {
+                    hash = mix(hash ^ buffer.getLong());
+                }
+                if (buffer.hasRemaining() && channel.position() == channel.size()) {
+                    long tail = 0;
+                    for (int shift = 0; buffer.hasRemaining(); shift += BITS_PER_BYTE) {
+                        tail |= (buffer.get() & 0xFFL) << shift;
+                    }
+                    hash = mix(hash ^ tail);
+                }
+                buffer.compact();
+            }
+            return new FileDigest(mix(hash ^ length), length);
+        }
+    }
+
+    private static long mix(long value) {
+        value *= HASH_MULTIPLIER;
+        value ^= value >>> HASH_SHIFT;
+        return value * HASH_FINAL_MULTIPLIER;
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : part * PERCENT / whole;
+    }
+
+    private static final class FileDigest {
+        private final long hash;
+        private final long length;
+
+        private FileDigest(long hash, long length) {
+            this.hash = hash;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileDigest)) {
+                return false;
+            }
+            FileDigest other = (FileDigest) o;
+            return this.hash == other.hash && this.length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.hash);
+        }
+    }
+
+    private static final class ConversionKey {
+        private final FileDigest digest;
+        private final int resolution;
+        private final DitherMode ditherMode;
+        private final ToneMapper toneMapper;
+        private final SortedMap<Character, Double> charBrightnessMap;
+
+        private ConversionKey(FileDigest digest, int resolution, DitherMode ditherMode, ToneMapper toneMapper,
+                              SortedMap<Character, Double> charBrightnessMap) {
+            this.digest = digest;
+            this.resolution = resolution;
+            this.ditherMode = ditherMode;
+            this.toneMapper = toneMapper;
+            this.charBrightnessMap = charBrightnessMap;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ConversionKey)) {
+                return false;
+            }
+            ConversionKey other = (ConversionKey) o;
+            return this.digest.equals(other.digest) && this.resolution == other.resolution &&
+                    this.ditherMode == other.ditherMode && this.toneMapper.equals(other.toneMapper) &&
+                    this.charBrightnessMap.equals(other.charBrightnessMap);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.digest, this.resolution, this.ditherMode, this.toneMapper,
+                    this.charBrightnessMap);
+        }
+    }
+}
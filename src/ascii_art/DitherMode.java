@@ -0,0 +1,20 @@
+package ascii_art;
+
+/**
+ * The ways AsciiArtAlgorithm can spread the quantization error of mapping block brightness to the
+ * few brightness levels of a charset.
+ */
+public enum DitherMode {
+    /**
+     * Every block is mapped to its closest character independently.
+     */
+    NONE,
+    /**
+     * Floyd-Steinberg error diffusion, the error of every block is pushed to its unvisited neighbours.
+     */
+    FLOYD_STEINBERG,
+    /**
+     * Ordered dithering with a 4x4 Bayer threshold matrix, every row is mapped independently.
+     */
+    ORDERED
+}
@@ -0,0 +1,196 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import image.PaddedImage;
+import image.PaddingLayout;
+import image.TiledImageSource;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.SubImgCharMatcher;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.awt.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts an image coarse first and refines it within a time budget. The first render, at a quarter
+ * of the requested resolution, is always output; every following render doubles the resolution and is
+ * only started if its estimated cost fits in what is left of the budget.
+ * <p>
+ * When the image is not loaded yet, the first render is made from a subsampled decode of the image,
+ * a block of pixels per character, so it is output without reading the full pixels. The full image is only
+ * loaded if loading it and rendering the next resolution are expected to fit in the budget. Once the
+ * full image is loaded, the brightness of every resolution is a level of its luminance pyramid, and
+ * building the coarse level builds the finer ones on the way, so refining never goes back to the pixels.
+ */
+public class ProgressiveAsciiArt {
+    private static final int COARSEST_DIVISOR = 4;
+    private static final int REFINE_FACTOR = 2;
+    private static final int PREVIEW_BLOCK_SIZE = 32;
+    private static final int FULL_DECODE_FACTOR = 2;
+
+    private final SubImgCharMatcher subImgCharMatcher;
+    private final PaddedImage paddedImage;
+    private final TiledImageSource imageSource;
+    private final Rectangle view;
+    private final ImageLoader imageLoader;
+    private final int resolution;
+    private final DitherMode ditherMode;
+    private final ToneMapper toneMapper;
+
+    /**
+     * Loads the full image to refine, once the coarse render is output.
+     */
+    public interface ImageLoader {
+        /**
+         * Loads the full image.
+         *
+         * @return the padded image of the view.
+         * @throws IOException if an error occurs while decoding.
+         */
+        PaddedImage load() throws IOException;
+    }
+
+    /**
+     * Constructs a progressive conversion of an image that is already loaded.
+     *
+     * @param subImgCharMatcher the character matcher used to map image brightness to characters.
+     * @param paddedImage the image to be converted into ASCII art.
+     * @param resolution the resolution to refine up to.
+     * @param ditherMode the way to spread the error of mapping brightness to characters.
+     * @param toneMapper the remapping of the block brightness.
+     */
+    public ProgressiveAsciiArt(SubImgCharMatcher subImgCharMatcher, PaddedImage paddedImage, int resolution,
+                               DitherMode ditherMode, ToneMapper toneMapper) {
+        this.subImgCharMatcher = subImgCharMatcher;
+        this.paddedImage = paddedImage;
+        this.imageSource = null;
+        this.view = new Rectangle(paddedImage.getWidth(), paddedImage.getHeight());
+        this.imageLoader = null;
+        this.resolution = resolution;
+        this.ditherMode = ditherMode;
+        this.toneMapper = toneMapper;
+    }
+
+    /**
+     * Constructs a progressive conversion of a view of an image file that is not loaded yet. The
+     * coarse render is made from a subsampled decode of the view, and the full image is loaded by the
+     * given loader only if the budget allows refining.
+     *
+     * @param subImgCharMatcher the character matcher used to map image brightness to characters.
+     * @param imageSource the image file.
+     * @param view the region of the image to convert.
+     * @param imageLoader loads the padded image of the view, to refine.
+     * @param resolution the resolution to refine up to.
+     * @param ditherMode the way to spread the error of mapping brightness to characters.
+     * @param toneMapper the remapping of the block brightness.
+     */
+    public ProgressiveAsciiArt(SubImgCharMatcher subImgCharMatcher, TiledImageSource imageSource, Rectangle view,
+                               ImageLoader imageLoader, int resolution, DitherMode ditherMode,
+                               ToneMapper toneMapper) {
+        this.subImgCharMatcher = subImgCharMatcher;
+        this.paddedImage = null;
+        this.imageSource = imageSource;
+        this.view = view;
+        this.imageLoader = imageLoader;
+        this.resolution = resolution;
+        this.ditherMode = ditherMode;
+        this.toneMapper = toneMapper;
+    }
+
+    /**
+     * Outputs renders of increasing resolution until the requested resolution is output or the next one
+     * is not expected to finish within the budget. The cost of the next render is estimated from the
+     * time the last one took to map and output each character. After a render from a subsampled decode,
+     * the estimate also covers loading the full image: decoding it, which takes about twice as long as
+     * the subsampled decode since the file is read in full either way, and padding it and building its
+     * coarse brightness, which takes the time the preview took times the ratio of their padded pixels.
+     * The first build of the preview runs cold code and would be timed many times too slow, so it is
+     * built once to warm up and the second build is timed.
+     *
+     * @param output the output every render is written to.
+     * @param budgetMillis the time, in milliseconds, the renders should be done within.
+     * @return the resolution of the last render output.
+     * @throws IOException if an error occurs while decoding the image.
+     */
+    public int run(AsciiOutput output, long budgetMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        PaddingLayout layout = new PaddingLayout(this.view.width, this.view.height);
+        int levelResolution = Math.max(1, this.resolution / COARSEST_DIVISOR);
+        while (levelResolution < this.resolution && layout.blockRows(levelResolution) == 0) {
+            levelResolution *= REFINE_FACTOR;
+        }
+        CharMatcherSnapshot snapshot = this.subImgCharMatcher.snapshot();
+        PaddedImage image = this.paddedImage;
+        if (image == null) {
+            int factor = subsamplingFactor(layout, levelResolution);
+            long decodeStart = System.nanoTime();
+            int[] pixels = this.imageSource.readSubsampled(this.view, factor);
+            long decodeNanos = System.nanoTime() - decodeStart;
+            int previewWidth = (this.view.width + factor - 1) / factor;
+            int previewHeight = (this.view.height + factor - 1) / factor;
+            try (PaddedImage warmUp = new PaddedImage(pixels, previewWidth, previewHeight)) {
+                warmUp.blockBrightness(levelResolution);
+            }
+            long previewStart = System.nanoTime();
+            long renderNanos;
+            double paddedPixelRatio;
+            try (PaddedImage preview = new PaddedImage(pixels, previewWidth, previewHeight)) {
+                renderNanos = render(preview, levelResolution, snapshot, output);
+                PaddingLayout previewLayout = preview.getLayout();
+                paddedPixelRatio = (double) layout.getPaddedWidth() * layout.getPaddedHeight()
+                        / ((double) previewLayout.getPaddedWidth() * previewLayout.getPaddedHeight());
+            }
+            long paddingNanos = System.nanoTime() - previewStart - renderNanos;
+            long loadNanos = decodeNanos * FULL_DECODE_FACTOR + (long) (paddingNanos * paddedPixelRatio);
+            if (levelResolution >= this.resolution
+                    || System.nanoTime() + loadNanos + renderNanos * REFINE_FACTOR * REFINE_FACTOR > deadline) {
+                return levelResolution;
+            }
+            image = this.imageLoader.load();
+            levelResolution *= REFINE_FACTOR;
+        }
+        while (true) {
+            long renderNanos = render(image, levelResolution, snapshot, output);
+            long now = System.nanoTime();
+            if (levelResolution >= this.resolution
+                    || now + renderNanos * REFINE_FACTOR * REFINE_FACTOR > deadline) {
+                return levelResolution;
+            }
+            levelResolution *= REFINE_FACTOR;
+        }
+    }
+
+    /*
+     * Outputs the image at a resolution and returns the time it took to map and output the characters,
+     * not the time of its brightness.
+     */
+    private long render(PaddedImage image, int levelResolution, CharMatcherSnapshot snapshot, AsciiOutput output) {
+        StageTimer brightnessTimer = PipelineMetrics.start(Stage.BRIGHTNESS);
+        double[][] blockBrightness = image.blockBrightness(levelResolution);
+        long cells = (long) blockBrightness.length * blockBrightness[0].length;
+        brightnessTimer.stop(cells);
+
+        long renderStart = System.nanoTime();
+        this.toneMapper.apply(blockBrightness, image.getLayout());
+        StageTimer matchingTimer = PipelineMetrics.start(Stage.MATCHING);
+        char[][] charImage = AsciiArtAlgorithm.mapToChars(blockBrightness, snapshot, this.ditherMode);
+        matchingTimer.stop(cells);
+        StageTimer outputTimer = PipelineMetrics.start(Stage.OUTPUT);
+        output.out(charImage);
+        outputTimer.stop(cells);
+        return System.nanoTime() - renderStart;
+    }
+
+    /*
+     * The power of two to subsample the view by so that every character of the coarse render still
+     * averages PREVIEW_BLOCK_SIZE by PREVIEW_BLOCK_SIZE pixels. Both padded sides are powers of two, so
+     * the subsampled view pads to the padded view divided by the factor and has the same character rows.
+     */
+    private static int subsamplingFactor(PaddingLayout layout, int levelResolution) {
+        int squareSize = layout.getPaddedWidth() / levelResolution;
+        return Math.max(1, Integer.highestOneBit(squareSize / PREVIEW_BLOCK_SIZE));
+    }
+}
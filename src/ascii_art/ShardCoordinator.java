@@ -0,0 +1,289 @@
+package ascii_art;
+
+import image.PaddingLayout;
+import image_char_matching.CharMatcherSnapshot;
+
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Converts an image with a pool of worker JVMs. The padded image is split into horizontal strips of
+ * blocks, every strip is sent with its slice of the padding geometry to a ShardWorker over the pipes of
+ * its process, and the strips that come back are stitched in order. A strip whose worker dies, or does not
+ * answer within the strip timeout, is retried on a fresh worker. The worker processes are started on first
+ * use and kept until the coordinator is closed. When a conversion fails, every worker is stopped before
+ * run returns, so no answer to an abandoned strip is left on the pipes for the next conversion.
+ * <p>
+ * Strips are a multiple of 4 rows of blocks so ordered dithering matches the single process conversion;
+ * Floyd-Steinberg error is not diffused across strip boundaries.
+ */
+public class ShardCoordinator implements AutoCloseable {
+    private static final int STRIPS_PER_WORKER = 2;
+    private static final int STRIP_ROW_MULTIPLE = 4;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long STRIP_TIMEOUT_SECONDS = 120;
+    private static final long DRAIN_JOIN_SECONDS = 10;
+    private static final String JAVA_HOME_PROPERTY = "java.home";
+    private static final String CLASS_PATH_PROPERTY = "java.class.path";
+    private static final String HEADLESS_OPTION = "-Djava.awt.headless=true";
+    private static final String CLASS_PATH_OPTION = "-cp";
+    private static final String RETRIES_EXHAUSTED_MESSAGE = "Strip at block row %d failed %d times.";
+
+    private final WorkerProcess[] workers;
+    private final List<String> workerCommand;
+    private final long stripTimeoutMillis;
+
+    /**
+     * Constructs a coordinator of the given number of worker processes, each a ShardWorker started with
+     * the java binary and class path of this process.
+     *
+     * @param workerCount the number of worker processes, at least 1.
+     */
+    public ShardCoordinator(int workerCount) {
+        this(workerCount, defaultWorkerCommand(), TimeUnit.SECONDS.toMillis(STRIP_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Constructs a coordinator that starts its workers with the given command and strip timeout, such as
+     * a fake worker that dies or hangs to exercise retries and timeouts (see ShardFaultHarness in bench).
+     *
+     * @param workerCount the number of worker processes, at least 1.
+     * @param workerCommand the command line of a worker process, speaking ShardProtocol on its pipes.
+     * @param stripTimeoutMillis how long a worker may take to answer a strip before it is killed.
+     */
+    ShardCoordinator(int workerCount, List<String> workerCommand, long stripTimeoutMillis) {
+        this.workers = new WorkerProcess[workerCount];
+        this.workerCommand = List.copyOf(workerCommand);
+        this.stripTimeoutMillis = stripTimeoutMillis;
+    }
+
+    /**
+     * @return the number of worker processes.
+     */
+    public int getWorkerCount() {
+        return this.workers.length;
+    }
+
+    /**
+     * Converts the given part of an image to characters.
+     *
+     * @param imagePath the image file, which the workers open themselves.
+     * @param view the part of the image to pad and convert.
+     * @param resolution the number of characters in a row.
+     * @param snapshot the charset to map to.
+     * @param ditherMode the way to spread the error of the mapping.
+     * @param toneMapper the remapping of the block brightness, which must be per block.
+     * @return the characters of the whole padded image, no rows if the resolution has no rows of blocks.
+     * @throws IOException if a worker could not convert its strip, or a strip failed on every attempt.
+     */
+    public synchronized char[][] run(String imagePath, Rectangle view, int resolution, CharMatcherSnapshot snapshot,
+                                     DitherMode ditherMode, ToneMapper toneMapper) throws IOException {
+        int blockRows = new PaddingLayout(view.width, view.height).blockRows(resolution);
+        if (blockRows == 0) {
+            return new char[0][];
+        }
+        int stripCount = Math.min(blockRows, this.workers.length * STRIPS_PER_WORKER);
+        int stripRows = ceilToMultiple((blockRows + stripCount - 1) / stripCount, STRIP_ROW_MULTIPLE);
+        ConcurrentLinkedQueue<ShardProtocol.StripRequest> pending = new ConcurrentLinkedQueue<>();
+        for (int firstBlockRow = 0; firstBlockRow < blockRows; firstBlockRow += stripRows) {
+            pending.add(new ShardProtocol.StripRequest(imagePath, view, resolution, firstBlockRow,
+                    Math.min(stripRows, blockRows - firstBlockRow), ditherMode, toneMapper, snapshot));
+        }
+        char[][] charImage = new char[blockRows][];
+        int[] attempts = new int[blockRows];
+        AtomicBoolean aborted = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(this.workers.length);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(BandPipeline.DAEMON_THREADS);
+        boolean completed = false;
+        try {
+            CompletionService<Void> drains = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < this.workers.length; i++) {
+                int workerIndex = i;
+                drains.submit(() -> {
+                    drain(workerIndex, pending, charImage, attempts, aborted, watchdog);
+                    return null;
+                });
+            }
+            for (int i = 0; i < this.workers.length; i++) {
+                drains.take().get();
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            if (!completed) {
+                aborted.set(true);
+                destroyWorkers();
+            }
+            executor.shutdownNow();
+            watchdog.shutdownNow();
+            joinDrains(executor);
+        }
+        return charImage;
+    }
+
+    /*
+     * Sends strips to one worker until none are left or the conversion is aborted. A strip whose worker
+     * dies or times out goes back to the queue, to be picked by this thread on a fresh process or by any
+     * other thread.
+     */
+    private void drain(int workerIndex, ConcurrentLinkedQueue<ShardProtocol.StripRequest> pending,
+                       char[][] charImage, int[] attempts, AtomicBoolean aborted,
+                       ScheduledExecutorService watchdog) throws IOException {
+        ShardProtocol.StripRequest request;
+        while (!aborted.get() && (request = pending.poll()) != null) {
+            char[][] strip;
+            try {
+                WorkerProcess worker = getWorker(workerIndex);
+                ScheduledFuture<?> timeout = watchdog.schedule(() -> worker.process.destroyForcibly(),
+                        this.stripTimeoutMillis, TimeUnit.MILLISECONDS);
+                try {
+                    ShardProtocol.writeRequest(worker.out, request);
+                    strip = ShardProtocol.readStrip(worker.in);
+                } finally {
+                    timeout.cancel(false);
+                }
+            } catch (ShardProtocol.ShardFailedException e) {
+                throw e;
+            } catch (IOException e) {
+                destroyWorker(workerIndex);
+                if (aborted.get()) {
+                    return;
+                }
+                int attempt;
+                synchronized (attempts) {
+                    attempt = ++attempts[request.firstBlockRow];
+                }
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw new IOException(String.format(RETRIES_EXHAUSTED_MESSAGE, request.firstBlockRow, attempt), e);
+                }
+                pending.add(request);
+                continue;
+            }
+            System.arraycopy(strip, 0, charImage, request.firstBlockRow, strip.length);
+        }
+    }
+
+    private WorkerProcess getWorker(int workerIndex) throws IOException {
+        synchronized (this.workers) {
+            if (this.workers[workerIndex] == null) {
+                this.workers[workerIndex] = new WorkerProcess(startWorkerProcess());
+            }
+            return this.workers[workerIndex];
+        }
+    }
+
+    private void destroyWorker(int workerIndex) {
+        synchronized (this.workers) {
+            if (this.workers[workerIndex] != null) {
+                this.workers[workerIndex].process.destroyForcibly();
+                this.workers[workerIndex] = null;
+            }
+        }
+    }
+
+    /*
+     * Kills every worker process, which also breaks the pipes drain threads may be blocked on.
+     */
+    private void destroyWorkers() {
+        for (int i = 0; i < this.workers.length; i++) {
+            destroyWorker(i);
+        }
+    }
+
+    /*
+     * Waits for the drain threads to return, so none of them still writes to the result or starts a
+     * worker once run has returned.
+     */
+    private static void joinDrains(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                executor.awaitTermination(DRAIN_JOIN_SECONDS, TimeUnit.SECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Process startWorkerProcess() throws IOException {
+        return new ProcessBuilder(this.workerCommand).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /*
+     * Starts a ShardWorker with the java binary and class path of this process.
+     */
+    static List<String> defaultWorkerCommand() {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty(JAVA_HOME_PROPERTY), "bin", "java").toString());
+        command.add(HEADLESS_OPTION);
+        command.add(CLASS_PATH_OPTION);
+        command.add(System.getProperty(CLASS_PATH_PROPERTY));
+        command.add(ShardWorker.class.getName());
+        return command;
+    }
+
+    private static int ceilToMultiple(int value, int multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    /**
+     * Stops every worker process; they are started again if the coordinator is used afterwards.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < this.workers.length; i++) {
+            WorkerProcess worker;
+            synchronized (this.workers) {
+                worker = this.workers[i];
+                this.workers[i] = null;
+            }
+            if (worker != null) {
+                try {
+                    worker.out.close();
+                } catch (IOException e) {
+                    worker.process.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    private static final class WorkerProcess {
+        private final Process process;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        private WorkerProcess(Process process) {
+            this.process = process;
+            this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+    }
+}
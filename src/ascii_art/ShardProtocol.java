@@ -0,0 +1,142 @@
+package ascii_art;
+
+import image_char_matching.CharMatcherSnapshot;
+
+import java.awt.Rectangle;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The messages ShardCoordinator and ShardWorker exchange over the pipes of a worker process.
+ * A request holds everything a worker needs to convert one horizontal strip of blocks: the image file,
+ * the part of it that is padded, the resolution, the strip, the tone mapping, which must be per block,
+ * and the raw brightness of the charset, so the worker never renders glyphs. The response is either the characters of the strip or an error.
+ */
+final class ShardProtocol {
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+
+    private ShardProtocol() {
+    }
+
+    /**
+     * A request to convert one strip of blocks.
+     */
+    static final class StripRequest {
+        final String imagePath;
+        final Rectangle view;
+        final int resolution;
+        final int firstBlockRow;
+        final int blockRowCount;
+        final DitherMode ditherMode;
+        final ToneMapper toneMapper;
+        final CharMatcherSnapshot snapshot;
+
+        StripRequest(String imagePath, Rectangle view, int resolution, int firstBlockRow, int blockRowCount,
+                     DitherMode ditherMode, ToneMapper toneMapper, CharMatcherSnapshot snapshot) {
+            this.imagePath = imagePath;
+            this.view = view;
+            this.resolution = resolution;
+            this.firstBlockRow = firstBlockRow;
+            this.blockRowCount = blockRowCount;
+            this.ditherMode = ditherMode;
+            this.toneMapper = toneMapper;
+            this.snapshot = snapshot;
+        }
+    }
+
+    static void writeRequest(DataOutputStream out, StripRequest request) throws IOException {
+        out.writeUTF(request.imagePath);
+        out.writeInt(request.view.x);
+        out.writeInt(request.view.y);
+        out.writeInt(request.view.width);
+        out.writeInt(request.view.height);
+        out.writeInt(request.resolution);
+        out.writeInt(request.firstBlockRow);
+        out.writeInt(request.blockRowCount);
+        out.writeInt(request.ditherMode.ordinal());
+        out.writeInt(request.toneMapper.getMode().ordinal());
+        out.writeDouble(request.toneMapper.getGamma());
+        SortedMap<Character, Double> charBrightnessMap = request.snapshot.getCharBrightnessMap();
+        out.writeInt(charBrightnessMap.size());
+        for (Map.Entry<Character, Double> entry : charBrightnessMap.entrySet()) {
+            out.writeChar(entry.getKey());
+            out.writeDouble(entry.getValue());
+        }
+        out.flush();
+    }
+
+    static StripRequest readRequest(DataInputStream in) throws IOException {
+        String imagePath = in.readUTF();
+        Rectangle view = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        int resolution = in.readInt();
+        int firstBlockRow = in.readInt();
+        int blockRowCount = in.readInt();
+        DitherMode ditherMode = DitherMode.values()[in.readInt()];
+        ToneMode toneMode = ToneMode.values()[in.readInt()];
+        double gamma = in.readDouble();
+        ToneMapper toneMapper = toneMode == ToneMode.GAMMA ? ToneMapper.gamma(gamma) : ToneMapper.of(toneMode);
+        int charCount = in.readInt();
+        SortedMap<Character, Double> charBrightnessMap = new TreeMap<>();
+        for (int i = 0; i < charCount; i++) {
+            charBrightnessMap.put(in.readChar(), in.readDouble());
+        }
+        return new StripRequest(imagePath, view, resolution, firstBlockRow, blockRowCount, ditherMode, toneMapper,
+                new CharMatcherSnapshot(charBrightnessMap));
+    }
+
+    static void writeStrip(DataOutputStream out, char[][] strip) throws IOException {
+        out.writeInt(STATUS_OK);
+        out.writeInt(strip.length);
+        out.writeInt(strip.length == 0 ? 0 : strip[0].length);
+        for (char[] row : strip) {
+            for (char c : row) {
+                out.writeChar(c);
+            }
+        }
+        out.flush();
+    }
+
+    static void writeError(DataOutputStream out, String message) throws IOException {
+        out.writeInt(STATUS_ERROR);
+        out.writeUTF(message == null ? "" : message);
+        out.flush();
+    }
+
+    /**
+     * Reads the response to a request.
+     *
+     * @return the characters of the strip.
+     * @throws ShardFailedException if the worker could not convert the strip.
+     * @throws IOException if the worker died or the pipe broke, the strip may be retried.
+     */
+    static char[][] readStrip(DataInputStream in) throws IOException {
+        if (in.readInt() != STATUS_OK) {
+            throw new ShardFailedException(in.readUTF());
+        }
+        int rows = in.readInt();
+        int cols = in.readInt();
+        char[][] strip = new char[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                strip[i][j] = in.readChar();
+            }
+        }
+        return strip;
+    }
+
+    /**
+     * A strip the worker reported it could not convert, retrying it on another worker would fail the same way.
+     */
+    static final class ShardFailedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ShardFailedException(String message) {
+            super(message);
+        }
+    }
+}
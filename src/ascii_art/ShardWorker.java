@@ -0,0 +1,78 @@
+package ascii_art;
+
+import image.PaddingLayout;
+import image.TiledImageSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The worker process of ShardCoordinator. It reads strip requests from its standard input until it is
+ * closed and answers each on its standard output: it decodes only the rows of the image the strip
+ * covers, computes the brightness of its blocks and maps them to the charset it was sent.
+ */
+public class ShardWorker {
+    private static final String HEADLESS_PROPERTY = "java.awt.headless";
+
+    private String imagePath;
+    private TiledImageSource imageSource;
+
+    private ShardWorker() {
+    }
+
+    /**
+     * The entry point of a worker process.
+     *
+     * @param args command line arguments (not used).
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty(HEADLESS_PROPERTY, Boolean.TRUE.toString());
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        ShardWorker worker = new ShardWorker();
+        try {
+            while (true) {
+                ShardProtocol.StripRequest request;
+                try {
+                    request = ShardProtocol.readRequest(in);
+                } catch (EOFException e) {
+                    return;
+                }
+                char[][] strip;
+                try {
+                    strip = worker.convert(request);
+                } catch (IOException | RuntimeException e) {
+                    ShardProtocol.writeError(out, e.getMessage());
+                    continue;
+                }
+                ShardProtocol.writeStrip(out, strip);
+            }
+        } finally {
+            if (worker.imageSource != null) {
+                worker.imageSource.close();
+            }
+        }
+    }
+
+    private char[][] convert(ShardProtocol.StripRequest request) throws IOException {
+        if (!request.imagePath.equals(this.imagePath)) {
+            if (this.imageSource != null) {
+                this.imageSource.close();
+                this.imageSource = null;
+            }
+            this.imageSource = new TiledImageSource(request.imagePath);
+            this.imagePath = request.imagePath;
+        }
+        PaddingLayout layout = new PaddingLayout(request.view.width, request.view.height);
+        double[][] brightness = layout.stripBrightness(this.imageSource, request.view.x, request.view.y,
+                request.resolution, request.firstBlockRow, request.blockRowCount);
+        request.toneMapper.applyToStrip(brightness, layout, request.firstBlockRow);
+        return AsciiArtAlgorithm.mapToChars(brightness, request.snapshot, request.ditherMode);
+    }
+}
@@ -1,12 +1,31 @@
 package ascii_art;
-import ascii_output.AsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
+import ascii_output.StreamingAsciiOutput;
 import exceptions.CharNotInCharSetException;
 import image.PaddedImage;
+import image.PaddingLayout;
+import image.TiledImageSource;
+import image_char_matching.CharMatcherSnapshot;
 import image_char_matching.SubImgCharMatcher;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
 
+import java.awt.Rectangle;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Shell {
     private static final int DEFAULT_RESOLUTION = 128;
@@ -22,8 +41,6 @@ public class Shell {
     private static final String SPACE_COMMAND = "space";
     private static final int START_CHAR = 0;
     private static final int END_CHAR = 2;
-    private static final char MIN_CHAR = ' ';
-    private static final char MAX_CHAR = '~';
     private static final String INCORRECT_FORMAT_MESSAGE = "Did not add due to incorrect format.";
     private static final char RANGE_INDICATOR = '-';
     private static final int RANGE_INDICATOR_INDEX = 1;
@@ -61,26 +78,134 @@ public class Shell {
     private static final int SECONDARY_COMMAND_INDEX = 1;
     private static final int SINGLE_CHAR_INDEX = 0;
     private static final int RANGE_COMMAND_LENGTH = 3;
+    private static final String STATS_COMMAND = "stats";
+    private static final String STATS_ON_COMMAND = "on";
+    private static final String STATS_OFF_COMMAND = "off";
+    private static final String STATS_RESET_COMMAND = "reset";
+    private static final String INCORRECT_FORMAT_STATS_MESSAGE = "Did not change stats due to incorrect" +
+            " format.";
+    private static final String DITHER_COMMAND = "dither";
+    private static final String DITHER_NONE_COMMAND = "none";
+    private static final String DITHER_FLOYD_STEINBERG_COMMAND = "fs";
+    private static final String DITHER_ORDERED_COMMAND = "ordered";
+    private static final String DITHER_INFORMATION_MESSAGE = "Dither set to %s.\n";
+    private static final String INCORRECT_FORMAT_DITHER_MESSAGE = "Did not change dither due to incorrect" +
+            " format.";
+    private static final String HEADLESS_PROPERTY = "java.awt.headless";
+    private static final String PRELOAD_GLYPHS_PROPERTY = "ascii_art.preloadGlyphs";
+    private static final String PRELOAD_GLYPHS_THREAD_NAME = "glyph-preloader";
+    private static final String BLOCKS_COMMAND = "blocks";
+    private static final char[] BLOCKS_RANGE = new char[]{'\u2580', '\u259F'};
+    private static final String BRAILLE_COMMAND = "braille";
+    private static final char[] BRAILLE_RANGE = new char[]{'\u2800', '\u28FF'};
+    private static final String FULLWIDTH_COMMAND = "fullwidth";
+    private static final char[] FULLWIDTH_RANGE = new char[]{'\uFF01', '\uFF5E'};
+    private static final Pattern CODE_POINT_RANGE_PATTERN =
+            Pattern.compile("U\\+([0-9A-Fa-f]{1,4})(?:-U\\+([0-9A-Fa-f]{1,4}))?");
+    private static final int RANGE_START_GROUP = 1;
+    private static final int RANGE_END_GROUP = 2;
+    private static final int HEX_RADIX = 16;
+    private static final String CROP_COMMAND = "crop";
+    private static final int CROP_COMMAND_LENGTH = 5;
+    private static final int CROP_X_INDEX = 1;
+    private static final int CROP_Y_INDEX = 2;
+    private static final int CROP_WIDTH_INDEX = 3;
+    private static final int CROP_HEIGHT_INDEX = 4;
+    private static final String INCORRECT_FORMAT_CROP_MESSAGE = "Did not crop due to incorrect format.";
+    private static final String EXCEEDING_BOUNDARIES_CROP_MESSAGE = "Did not crop due to exceeding" +
+            " boundaries.";
+    private static final String SHARDS_COMMAND = "shards";
+    private static final int MIN_SHARDS = 1;
+    private static final int MAX_SHARDS = 64;
+    private static final String SHARDS_INFORMATION_MESSAGE = "Shards set to %d.\n";
+    private static final String INCORRECT_FORMAT_SHARDS_MESSAGE = "Did not change shards due to incorrect" +
+            " format.";
+    private static final String EXCEEDING_BOUNDARIES_SHARDS_MESSAGE = "Did not change shards due to exceeding" +
+            " boundaries.";
+    private static final String PROGRESSIVE_COMMAND = "progressive";
+    private static final String PROGRESSIVE_INFORMATION_MESSAGE = "Rendered at resolution %d.\n";
+    private static final String INCORRECT_FORMAT_PROGRESSIVE_MESSAGE = "Did not render progressively due to" +
+            " incorrect format.";
+    private static final String BATCH_COMMAND = "batch";
+    private static final String BATCH_HTML_EXTENSION = ".html";
+    private static final String INCORRECT_FORMAT_BATCH_MESSAGE = "Did not execute batch due to incorrect format.";
+    private static final String PROBLEM_WITH_BATCH_FILE_MESSAGE = "Did not convert %s due to problem with" +
+            " image file.\n";
+    private static final String TONE_COMMAND = "tone";
+    private static final String TONE_NONE_COMMAND = "none";
+    private static final String TONE_LEVELS_COMMAND = "levels";
+    private static final String TONE_EQUALIZE_COMMAND = "equalize";
+    private static final String TONE_GAMMA_COMMAND = "gamma";
+    private static final int TONE_GAMMA_COMMAND_LENGTH = 3;
+    private static final int GAMMA_INDEX = 2;
+    private static final double MAX_GAMMA = 10;
+    private static final String TONE_INFORMATION_MESSAGE = "Tone set to %s.\n";
+    private static final String TONE_GAMMA_INFORMATION_MESSAGE = "Tone set to gamma %s.\n";
+    private static final String INCORRECT_FORMAT_TONE_MESSAGE = "Did not change tone due to incorrect format.";
+    private static final String STRIP_DITHER_MESSAGE = "Floyd-Steinberg error is not carried across the strips" +
+            " of shards or pipeline, the art differs from the single process conversion.";
+    private static final String WHOLE_IMAGE_TONE_MESSAGE = "Did not use shards or pipeline due to the tone" +
+            " mapping needing the whole image, converting in this process.";
+    private static final String EXCEEDING_BOUNDARIES_TONE_MESSAGE = "Did not change tone due to exceeding" +
+            " boundaries.";
+    private static final String VARIANTS_COMMAND = "variants";
+    private static final int VARIANTS_COMMAND_LENGTH = 3;
+    private static final int VARIANT_RESOLUTIONS_INDEX = 1;
+    private static final int VARIANT_CHARSETS_INDEX = 2;
+    private static final String VARIANT_LIST_DELIMITER = ",";
+    private static final String DIGITS_CHARSET = "digits";
+    private static final String ASCII_CHARSET = "ascii";
+    private static final String MINIMAL_CHARSET = "minimal";
+    private static final char[] MINIMAL_CHAR_SET = new char[]{' ', '#'};
+    private static final String CURRENT_CHARSET = "current";
+    private static final String VARIANT_HTML_FILENAME = "variant_%s_%d.html";
+    private static final String VARIANTS_INFORMATION_MESSAGE = "Wrote %d variants.\n";
+    private static final String VARIANT_FAILED_MESSAGE = "Did not render variant %s at resolution %d due to" +
+            " %s.\n";
+    private static final String INCORRECT_FORMAT_VARIANTS_MESSAGE = "Did not render variants due to incorrect" +
+            " format.";
+    private static final String EXCEEDING_BOUNDARIES_VARIANTS_MESSAGE = "Did not render variants due to" +
+            " exceeding boundaries.";
+    private static final String PIPELINE_COMMAND = "pipeline";
+    private static final String PIPELINE_OFF_COMMAND = "off";
+    private static final int PIPELINE_COMMAND_LENGTH = 3;
+    private static final int BRIGHTNESS_PARALLELISM_INDEX = 1;
+    private static final int MATCHING_PARALLELISM_INDEX = 2;
+    private static final int MIN_PARALLELISM = 1;
+    private static final int MAX_PARALLELISM = 64;
+    private static final String PIPELINE_INFORMATION_MESSAGE = "Pipeline set to %d %d.\n";
+    private static final String PIPELINE_OFF_MESSAGE = "Pipeline set to off.";
+    private static final String INCORRECT_FORMAT_PIPELINE_MESSAGE = "Did not change pipeline due to incorrect" +
+            " format.";
+    private static final String EXCEEDING_BOUNDARIES_PIPELINE_MESSAGE = "Did not change pipeline due to" +
+            " exceeding boundaries.";
 
     private final SubImgCharMatcher subImgCharMatcher;
+    private String imagePath;
+    private TiledImageSource imageSource;
+    private Rectangle viewport;
     private PaddedImage paddedImage;
     private int resolution;
-    private AsciiOutput output;
+    private StreamingAsciiOutput output;
+    private DitherMode ditherMode;
+    private ToneMapper toneMapper;
+    private ShardCoordinator shardCoordinator;
+    private BandPipeline bandPipeline;
+    private final BatchConverter batchConverter;
 
 
     /**
      * Constructs a new Shell object and initializes it with default values.
-     *
-     * @throws IOException if there is an error loading the default image.
+     * The default image is only loaded when it is first needed.
      */
-    public Shell() throws IOException {
-
-        this.paddedImage = new PaddedImage(DEFAULT_IMAGE_PATH);
-
+    public Shell() {
+        this.imagePath = DEFAULT_IMAGE_PATH;
         this.subImgCharMatcher = new SubImgCharMatcher(DEFAULT_CHAR_SET);
         this.resolution = DEFAULT_RESOLUTION;
         this.output = new ConsoleAsciiOutput();
-
+        this.ditherMode = DitherMode.NONE;
+        this.toneMapper = ToneMapper.NONE;
+        this.batchConverter = new BatchConverter();
     }
 
 
@@ -95,14 +220,25 @@ public class Shell {
      *   res up: Increases the resolution.
      *   res down: Decreases the resolution.
      *   image: Changes the image used for ASCII conversion to the specified path.
+     *   crop x y w h: Converts only the given region of the image, crop alone converts all of it.
      *   output console: Sets the output method to console.
      *   output html: Sets the output method to HTML.
      *   asciiArt: Generates and outputs the ASCII art based on the current settings.
+     *   variants r1,r2 s1,s2: Writes the image at every resolution with every charset (digits, ascii,
+     *   minimal or current) to HTML files, decoding it once.
+     *   batch dir: Converts every image in dir to an HTML file named after it, skipping duplicate images.
+     *   progressive ms: Outputs coarse ASCII art first and refines it as far as it can within ms milliseconds.
+     *   dither: Displays the dither mode, dither none/fs/ordered changes it.
+     *   pipeline: Displays the threads of the streaming pipeline, pipeline b m sets them, pipeline off stops it.
+     *   shards: Displays the number of worker processes, shards n changes it (1 converts in process).
+     *   tone: Displays the tone mapping, tone none/levels/equalize/gamma g changes it.
+     *   stats: Displays the per stage pipeline statistics, stats on/off/reset controls them.
      *   exit: Exits the shell.
      *   Any other input results in an incorrect format message.
      */
     public void run(){
         String command = EMPTY_STRING;
+        PipelineMetrics.markFirstPrompt();
         while(true){
             System.out.println(ARROWS);
             String prompt = KeyboardInput.readLine();
@@ -142,7 +278,12 @@ public class Shell {
                         System.out.printf(RESOLUTION_INFORAMTION_MESSAGE, this.resolution);
                     }
                     else{
-                        changeRes(splitCommand);
+                        try{
+                            changeRes(splitCommand);
+                        }
+                        catch (IOException | UncheckedIOException e){
+                            System.out.println(PROBLEM_WITH_IMAGE_FILE_MESSAGE);
+                        }
                     }
 
                     break;
@@ -155,13 +296,67 @@ public class Shell {
                         System.out.println(e.getMessage());
                     }
                     break;
+                case CROP_COMMAND:
+                    try{
+                        changeViewport(splitCommand);
+                    }
+                    catch (IOException | UncheckedIOException e){
+                        System.out.println(PROBLEM_WITH_IMAGE_FILE_MESSAGE);
+                    }
+                    break;
                 case OUTPUT_COMMAND:
                     changeOutput(splitCommand);
                     break;
                 case ASCII_ART_COMMAND:
+                    try{
                         asciiArtCommand();
+                    }
+                    catch (IOException | UncheckedIOException e){
+                        System.out.println(PROBLEM_WITH_IMAGE_FILE_MESSAGE);
+                    }
+                    break;
+                case VARIANTS_COMMAND:
+                    try{
+                        variantsCommand(splitCommand);
+                    }
+                    catch (IOException | UncheckedIOException e){
+                        System.out.println(PROBLEM_WITH_IMAGE_FILE_MESSAGE);
+                    }
+                    break;
+                case BATCH_COMMAND:
+                    batchCommand(splitCommand);
+                    break;
+                case PROGRESSIVE_COMMAND:
+                    try{
+                        progressiveCommand(splitCommand);
+                    }
+                    catch (IOException | UncheckedIOException e){
+                        System.out.println(PROBLEM_WITH_IMAGE_FILE_MESSAGE);
+                    }
+                    break;
+                case DITHER_COMMAND:
+                    changeDither(splitCommand);
+                    break;
+                case TONE_COMMAND:
+                    changeTone(splitCommand);
+                    break;
+                case STATS_COMMAND:
+                    statsCommand(splitCommand);
+                    break;
+                case SHARDS_COMMAND:
+                    changeShards(splitCommand);
+                    break;
+                case PIPELINE_COMMAND:
+                    changePipeline(splitCommand);
                     break;
                 case EXIT_COMMAND:
+                    releasePaddedImage();
+                    if (this.shardCoordinator != null){
+                        this.shardCoordinator.close();
+                    }
+                    if (this.imageSource != null){
+                        this.imageSource.close();
+                    }
                     return;
                 default:
                     System.out.println(INCORRECT_FORMAT_MESSAGE);
@@ -173,8 +368,11 @@ public class Shell {
     }
 
     private void addCommand(String toAdd) {
+        char[] unicodeRange = parseUnicodeRange(toAdd);
         if (toAdd.equals(ALL_COMMAND)) {
             subImgCharMatcher.addAllAsciiTable();
+        } else if (unicodeRange != null) {
+            subImgCharMatcher.addRangeChars(unicodeRange[START_CHAR], unicodeRange[SECONDARY_COMMAND_INDEX]);
         } else if (toAdd.equals(SPACE_COMMAND)) {
             subImgCharMatcher.addChar(SPACE);
         } else if (toAdd.length() == RANGE_COMMAND_LENGTH
@@ -184,7 +382,7 @@ public class Shell {
             subImgCharMatcher.addRangeChars((char) Math.min(start, end), (char) Math.max(start, end));
         } else if (toAdd.length() == 1) {
             char charToAdd = toAdd.charAt(SINGLE_CHAR_INDEX);
-            if (charToAdd >= MIN_CHAR && charToAdd <= MAX_CHAR) {
+            if (!Character.isISOControl(charToAdd)) {
                 subImgCharMatcher.addChar(charToAdd);
             }
         }
@@ -194,8 +392,11 @@ public class Shell {
     }
 
     private void removeCommand(String toRemove) throws CharNotInCharSetException {
+        char[] unicodeRange = parseUnicodeRange(toRemove);
         if (toRemove.equals(ALL_COMMAND)) {
             subImgCharMatcher.resetChar();
+        } else if (unicodeRange != null) {
+            subImgCharMatcher.removeRangeChars(unicodeRange[START_CHAR], unicodeRange[SECONDARY_COMMAND_INDEX]);
         } else if (toRemove.equals(SPACE_COMMAND)) {
             subImgCharMatcher.removeChar(' ');
         } else if (toRemove.length() == RANGE_COMMAND_LENGTH &&
@@ -205,7 +406,7 @@ public class Shell {
             subImgCharMatcher.removeRangeChars((char) Math.min(start, end), (char) Math.max(start, end));
         } else if (toRemove.length() == 1) {
             char CharToRemove = toRemove.charAt(SINGLE_CHAR_INDEX);
-            if (CharToRemove >= MIN_CHAR && CharToRemove <= MAX_CHAR) {
+            if (!Character.isISOControl(CharToRemove)) {
                 subImgCharMatcher.removeChar(CharToRemove);
             }
         }
@@ -214,9 +415,83 @@ public class Shell {
         }
     }
 
-    private void changeRes(String[] splitCommand) {
+    /*
+     * Parses the named Unicode sets (blocks, braille, fullwidth) and code point ranges written as
+     * U+2800-U+28FF or a single U+2588. Returns the first and last char of the range, or null, also for
+     * ranges with a char that cannot be drawn: a control, an unassigned code point or a surrogate, which
+     * is half of a character and has no glyph of its own.
+     */
+    private static char[] parseUnicodeRange(String argument) {
+        switch (argument){
+            case BLOCKS_COMMAND:
+                return BLOCKS_RANGE;
+            case BRAILLE_COMMAND:
+                return BRAILLE_RANGE;
+            case FULLWIDTH_COMMAND:
+                return FULLWIDTH_RANGE;
+            default:
+                break;
+        }
+        Matcher matcher = CODE_POINT_RANGE_PATTERN.matcher(argument);
+        if (!matcher.matches()){
+            return null;
+        }
+        char start = (char) Integer.parseInt(matcher.group(RANGE_START_GROUP), HEX_RADIX);
+        char end = matcher.group(RANGE_END_GROUP) == null ? start :
+                (char) Integer.parseInt(matcher.group(RANGE_END_GROUP), HEX_RADIX);
+        char first = (char) Math.min(start, end);
+        char last = (char) Math.max(start, end);
+        for (int c = first; c <= last; c++){
+            if (Character.isISOControl(c) || !Character.isDefined(c) || Character.isSurrogate((char) c)){
+                return null;
+            }
+        }
+        return new char[]{first, last};
+    }
+
+    private TiledImageSource getImageSource() throws IOException {
+        if (this.imageSource == null){
+            this.imageSource = new TiledImageSource(this.imagePath);
+        }
+        return this.imageSource;
+    }
+
+    /*
+     * The padded image of the current viewport. The whole image is decoded in one go, a viewport
+     * only decodes the tiles it overlaps.
+     */
+    private PaddedImage getPaddedImage() throws IOException {
+        if (this.paddedImage == null){
+            if (this.viewport == null){
+                this.paddedImage = new PaddedImage(this.imagePath);
+            }
+            else{
+                this.paddedImage = new PaddedImage(getImageSource(), this.viewport);
+            }
+        }
+        return this.paddedImage;
+    }
+
+    private void releasePaddedImage() {
+        if (this.paddedImage != null){
+            this.paddedImage.close();
+            this.paddedImage = null;
+        }
+    }
+
+    private int getViewWidth() throws IOException {
+        return this.viewport == null ? getImageSource().getWidth() : this.viewport.width;
+    }
+
+    private int getViewHeight() throws IOException {
+        return this.viewport == null ? getImageSource().getHeight() : this.viewport.height;
+    }
+
+    private void changeRes(String[] splitCommand) throws IOException {
+        int viewWidth = getViewWidth();
+        int viewHeight = getViewHeight();
         if(splitCommand[SECONDARY_COMMAND_INDEX].equals(INCREASE_RES_COMMAND)){
-            if(paddedImage.getWidth() >= this.resolution * CHANGE_RES_FACTOR){
+            if(viewWidth >= this.resolution * CHANGE_RES_FACTOR){
                 this.resolution *= CHANGE_RES_FACTOR;
                 System.out.printf(RESOLUTION_INFORAMTION_MESSAGE, this.resolution);
             }
@@ -224,7 +499,7 @@ public class Shell {
                 System.out.println(EXCEEDING_BOUNDARIES_MESSAGE);
             }
         } else if (splitCommand[SECONDARY_COMMAND_INDEX].equals(DECREASE_RES_COMMAND)) {
-            int minCharsInRow = Math.max(RES_LOWER_BOUND, paddedImage.getWidth())/ paddedImage.getHeight();
+            int minCharsInRow = Math.max(RES_LOWER_BOUND, viewWidth)/ viewHeight;
             if (this.resolution / CHANGE_RES_FACTOR > minCharsInRow){
                 this.resolution /= CHANGE_RES_FACTOR;
                 System.out.printf(RESOLUTION_INFORAMTION_MESSAGE, this.resolution);
@@ -245,14 +520,56 @@ public class Shell {
         }
         String imagePath = splitCommand[SECONDARY_COMMAND_INDEX];
 
-        this.paddedImage = new PaddedImage(imagePath);
-        if(this.paddedImage.getWidth() < this.resolution){
+        TiledImageSource newSource = new TiledImageSource(imagePath);
+        releasePaddedImage();
+        if (this.imageSource != null){
+            this.imageSource.close();
+        }
+        this.imagePath = imagePath;
+        this.imageSource = newSource;
+        this.viewport = null;
+        if(newSource.getWidth() < this.resolution){
             this.resolution = MINIMAL_RES;
         }
 
 
     }
 
+    private void changeViewport(String[] splitCommand) throws IOException {
+        if(splitCommand.length == 1){
+            if (this.viewport != null){
+                releasePaddedImage();
+                this.viewport = null;
+            }
+            return;
+        }
+        if(splitCommand.length != CROP_COMMAND_LENGTH){
+            System.out.println(INCORRECT_FORMAT_CROP_MESSAGE);
+            return;
+        }
+        Rectangle newViewport;
+        try{
+            newViewport = new Rectangle(Integer.parseInt(splitCommand[CROP_X_INDEX]),
+                    Integer.parseInt(splitCommand[CROP_Y_INDEX]), Integer.parseInt(splitCommand[CROP_WIDTH_INDEX]),
+                    Integer.parseInt(splitCommand[CROP_HEIGHT_INDEX]));
+        }
+        catch (NumberFormatException e){
+            System.out.println(INCORRECT_FORMAT_CROP_MESSAGE);
+            return;
+        }
+        TiledImageSource source = getImageSource();
+        Rectangle bounds = new Rectangle(source.getWidth(), source.getHeight());
+        if (newViewport.isEmpty() || newViewport.x < 0 || newViewport.y < 0 || !bounds.contains(newViewport)){
+            System.out.println(EXCEEDING_BOUNDARIES_CROP_MESSAGE);
+            return;
+        }
+        releasePaddedImage();
+        this.viewport = newViewport;
+        if(newViewport.width < this.resolution){
+            this.resolution = MINIMAL_RES;
+        }
+    }
+
     private void changeOutput(String[] splitCommand) {
         if(splitCommand.length < MIN_LEN_COMMAND){
             System.out.println(INCORRECT_FORMAT_OUTPUT_MESSAGE);
@@ -268,32 +585,374 @@ public class Shell {
         }
     }
 
-    private void asciiArtCommand() {
-        if (this.subImgCharMatcher.getCharSet().size() < MIN_SIZE_CHAR_SET){
+    private void asciiArtCommand() throws IOException {
+        CharMatcherSnapshot snapshot = this.subImgCharMatcher.snapshot();
+        if (snapshot.getCharSet().size() < MIN_SIZE_CHAR_SET){
             System.out.println(SMALL_CHAR_SET_MESSAGE);
             return;
         }
-        ascii_art.AsciiArtAlgorithm asciiArtAlgorithm =
-                new ascii_art.AsciiArtAlgorithm(this.subImgCharMatcher, this.paddedImage, this.resolution);
-        char[][] charImage = asciiArtAlgorithm.run();
+        char[][] charImage;
+        boolean perBlockTone = this.toneMapper.isPerBlock();
+        if ((this.shardCoordinator != null || this.bandPipeline != null) && perBlockTone
+                && this.ditherMode == DitherMode.FLOYD_STEINBERG){
+            System.out.println(STRIP_DITHER_MESSAGE);
+        }
+        if (this.shardCoordinator != null && perBlockTone){
+            Rectangle view = this.viewport == null ?
+                    new Rectangle(getViewWidth(), getViewHeight()) : this.viewport;
+            charImage = this.shardCoordinator.run(this.imagePath, view, this.resolution, snapshot,
+                    this.ditherMode, this.toneMapper);
+        }
+        else if (this.bandPipeline != null && perBlockTone){
+            Rectangle view = this.viewport == null ?
+                    new Rectangle(getViewWidth(), getViewHeight()) : this.viewport;
+            this.bandPipeline.run(this.imagePath, view, this.resolution, snapshot, this.ditherMode,
+                    this.toneMapper, this.output);
+            return;
+        }
+        else{
+            if (this.shardCoordinator != null || this.bandPipeline != null){
+                System.out.println(WHOLE_IMAGE_TONE_MESSAGE);
+            }
+            ascii_art.AsciiArtAlgorithm asciiArtAlgorithm =
+                    new ascii_art.AsciiArtAlgorithm(this.subImgCharMatcher, getPaddedImage(), this.resolution,
+                            this.ditherMode, this.toneMapper);
+            charImage = asciiArtAlgorithm.run();
+        }
+        StageTimer timer = PipelineMetrics.start(Stage.OUTPUT);
         this.output.out(charImage);
+        timer.stop((long) charImage.length * charImage[0].length);
+    }
+
+    private void variantsCommand(String[] splitCommand) throws IOException {
+        if(splitCommand.length != VARIANTS_COMMAND_LENGTH){
+            System.out.println(INCORRECT_FORMAT_VARIANTS_MESSAGE);
+            return;
+        }
+        List<Integer> resolutions = new ArrayList<>();
+        try{
+            for (String resolution : splitCommand[VARIANT_RESOLUTIONS_INDEX].split(VARIANT_LIST_DELIMITER)){
+                int parsedResolution = Integer.parseInt(resolution);
+                if (resolutions.contains(parsedResolution)){
+                    System.out.println(INCORRECT_FORMAT_VARIANTS_MESSAGE);
+                    return;
+                }
+                resolutions.add(parsedResolution);
+            }
+        }
+        catch (NumberFormatException e){
+            System.out.println(INCORRECT_FORMAT_VARIANTS_MESSAGE);
+            return;
+        }
+        String[] charsetNames = splitCommand[VARIANT_CHARSETS_INDEX].split(VARIANT_LIST_DELIMITER);
+        List<CharMatcherSnapshot> charsets = new ArrayList<>();
+        for (int i = 0; i < charsetNames.length; i++){
+            CharMatcherSnapshot charset = variantCharset(charsetNames[i]);
+            if (charset == null || Arrays.asList(charsetNames).subList(0, i).contains(charsetNames[i])){
+                System.out.println(INCORRECT_FORMAT_VARIANTS_MESSAGE);
+                return;
+            }
+            if (charset.getCharSet().size() < MIN_SIZE_CHAR_SET){
+                System.out.println(SMALL_CHAR_SET_MESSAGE);
+                return;
+            }
+            charsets.add(charset);
+        }
+        PaddingLayout layout = new PaddingLayout(getViewWidth(), getViewHeight());
+        for (int resolution : resolutions){
+            if (resolution < RES_LOWER_BOUND || resolution > getViewWidth() || Integer.bitCount(resolution) != 1
+                    || layout.blockRows(resolution) == 0){
+                System.out.println(EXCEEDING_BOUNDARIES_VARIANTS_MESSAGE);
+                return;
+            }
+        }
+        VariantMatrix variantMatrix = new VariantMatrix(getPaddedImage(), charsets, resolutions, this.ditherMode,
+                this.toneMapper);
+        int written;
+        try{
+            written = variantMatrix.render((charsetIndex, resolution) -> new HtmlAsciiOutput(
+                    String.format(VARIANT_HTML_FILENAME, charsetNames[charsetIndex], resolution), OUTPUT_HTML_FONT));
+        }
+        catch (VariantMatrix.VariantFailedException e){
+            System.out.printf(VARIANT_FAILED_MESSAGE, charsetNames[e.getCharsetIndex()], e.getResolution(),
+                    e.getCause());
+            return;
+        }
+        System.out.printf(VARIANTS_INFORMATION_MESSAGE, written);
+    }
+
+    private CharMatcherSnapshot variantCharset(String charsetName) {
+        switch (charsetName){
+            case DIGITS_CHARSET:
+                return new SubImgCharMatcher(DEFAULT_CHAR_SET).snapshot();
+            case ASCII_CHARSET:
+                SubImgCharMatcher asciiMatcher = new SubImgCharMatcher(new char[0]);
+                asciiMatcher.addAllAsciiTable();
+                return asciiMatcher.snapshot();
+            case MINIMAL_CHARSET:
+                return new SubImgCharMatcher(MINIMAL_CHAR_SET).snapshot();
+            case CURRENT_CHARSET:
+                return this.subImgCharMatcher.snapshot();
+            default:
+                return null;
+        }
+    }
+
+    private void batchCommand(String[] splitCommand) {
+        if(splitCommand.length != MIN_LEN_COMMAND){
+            System.out.println(INCORRECT_FORMAT_BATCH_MESSAGE);
+            return;
+        }
+        if (this.subImgCharMatcher.getCharSet().size() < MIN_SIZE_CHAR_SET){
+            System.out.println(SMALL_CHAR_SET_MESSAGE);
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(Paths.get(splitCommand[SECONDARY_COMMAND_INDEX]))){
+            files = listing.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        catch (IOException | RuntimeException e){
+            System.out.println(INCORRECT_FORMAT_BATCH_MESSAGE);
+            return;
+        }
+        CharMatcherSnapshot snapshot = this.subImgCharMatcher.snapshot();
+        for (Path file : files){
+            char[][] charImage;
+            try{
+                charImage = this.batchConverter.convert(file, this.resolution, snapshot, this.ditherMode,
+                        this.toneMapper);
+            }
+            catch (IOException e){
+                System.out.printf(PROBLEM_WITH_BATCH_FILE_MESSAGE, file.getFileName());
+                continue;
+            }
+            String htmlName = file.getFileName() + BATCH_HTML_EXTENSION;
+            StageTimer timer = PipelineMetrics.start(Stage.OUTPUT);
+            new HtmlAsciiOutput(htmlName, OUTPUT_HTML_FONT).out(charImage);
+            timer.stop((long) charImage.length * charImage[0].length);
+        }
+        System.out.println(this.batchConverter.report());
+    }
+
+    private void progressiveCommand(String[] splitCommand) throws IOException {
+        long start = System.nanoTime();
+        if(splitCommand.length != MIN_LEN_COMMAND){
+            System.out.println(INCORRECT_FORMAT_PROGRESSIVE_MESSAGE);
+            return;
+        }
+        long budgetMillis;
+        try{
+            budgetMillis = Long.parseLong(splitCommand[SECONDARY_COMMAND_INDEX]);
+        }
+        catch (NumberFormatException e){
+            System.out.println(INCORRECT_FORMAT_PROGRESSIVE_MESSAGE);
+            return;
+        }
+        if (budgetMillis < 0){
+            System.out.println(INCORRECT_FORMAT_PROGRESSIVE_MESSAGE);
+            return;
+        }
+        if (this.subImgCharMatcher.getCharSet().size() < MIN_SIZE_CHAR_SET){
+            System.out.println(SMALL_CHAR_SET_MESSAGE);
+            return;
+        }
+        ProgressiveAsciiArt progressiveAsciiArt;
+        if (this.paddedImage != null){
+            progressiveAsciiArt = new ProgressiveAsciiArt(this.subImgCharMatcher, this.paddedImage,
+                    this.resolution, this.ditherMode, this.toneMapper);
+        }
+        else{
+            TiledImageSource source = getImageSource();
+            Rectangle view = this.viewport == null ?
+                    new Rectangle(source.getWidth(), source.getHeight()) : this.viewport;
+            progressiveAsciiArt = new ProgressiveAsciiArt(this.subImgCharMatcher, source, view,
+                    this::getPaddedImage, this.resolution, this.ditherMode, this.toneMapper);
+        }
+        long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int reached = progressiveAsciiArt.run(this.output, Math.max(0, budgetMillis - loadMillis));
+        System.out.printf(PROGRESSIVE_INFORMATION_MESSAGE, reached);
+    }
+
+    private void changeDither(String[] splitCommand) {
+        if(splitCommand.length == 1){
+            System.out.printf(DITHER_INFORMATION_MESSAGE, ditherName(this.ditherMode));
+            return;
+        }
+        switch (splitCommand[SECONDARY_COMMAND_INDEX]){
+            case DITHER_NONE_COMMAND:
+                this.ditherMode = DitherMode.NONE;
+                break;
+            case DITHER_FLOYD_STEINBERG_COMMAND:
+                this.ditherMode = DitherMode.FLOYD_STEINBERG;
+                break;
+            case DITHER_ORDERED_COMMAND:
+                this.ditherMode = DitherMode.ORDERED;
+                break;
+            default:
+                System.out.println(INCORRECT_FORMAT_DITHER_MESSAGE);
+                return;
+        }
+        System.out.printf(DITHER_INFORMATION_MESSAGE, ditherName(this.ditherMode));
+    }
+
+    private void changeTone(String[] splitCommand) {
+        if(splitCommand.length > 1){
+            switch (splitCommand[SECONDARY_COMMAND_INDEX]){
+                case TONE_NONE_COMMAND:
+                    this.toneMapper = ToneMapper.NONE;
+                    break;
+                case TONE_LEVELS_COMMAND:
+                    this.toneMapper = ToneMapper.of(ToneMode.AUTO_LEVELS);
+                    break;
+                case TONE_EQUALIZE_COMMAND:
+                    this.toneMapper = ToneMapper.of(ToneMode.EQUALIZE);
+                    break;
+                case TONE_GAMMA_COMMAND:
+                    if (splitCommand.length != TONE_GAMMA_COMMAND_LENGTH){
+                        System.out.println(INCORRECT_FORMAT_TONE_MESSAGE);
+                        return;
+                    }
+                    double gamma;
+                    try{
+                        gamma = Double.parseDouble(splitCommand[GAMMA_INDEX]);
+                    }
+                    catch (NumberFormatException e){
+                        System.out.println(INCORRECT_FORMAT_TONE_MESSAGE);
+                        return;
+                    }
+                    if (!(gamma > 0 && gamma <= MAX_GAMMA)){
+                        System.out.println(EXCEEDING_BOUNDARIES_TONE_MESSAGE);
+                        return;
+                    }
+                    this.toneMapper = ToneMapper.gamma(gamma);
+                    break;
+                default:
+                    System.out.println(INCORRECT_FORMAT_TONE_MESSAGE);
+                    return;
+            }
+        }
+        switch (this.toneMapper.getMode()){
+            case AUTO_LEVELS:
+                System.out.printf(TONE_INFORMATION_MESSAGE, TONE_LEVELS_COMMAND);
+                break;
+            case EQUALIZE:
+                System.out.printf(TONE_INFORMATION_MESSAGE, TONE_EQUALIZE_COMMAND);
+                break;
+            case GAMMA:
+                System.out.printf(TONE_GAMMA_INFORMATION_MESSAGE, this.toneMapper.getGamma());
+                break;
+            default:
+                System.out.printf(TONE_INFORMATION_MESSAGE, TONE_NONE_COMMAND);
+        }
+    }
+
+    private static String ditherName(DitherMode ditherMode) {
+        switch (ditherMode){
+            case FLOYD_STEINBERG:
+                return DITHER_FLOYD_STEINBERG_COMMAND;
+            case ORDERED:
+                return DITHER_ORDERED_COMMAND;
+            default:
+                return DITHER_NONE_COMMAND;
+        }
+    }
+
+    private void changeShards(String[] splitCommand) {
+        if(splitCommand.length == 1){
+            System.out.printf(SHARDS_INFORMATION_MESSAGE,
+                    this.shardCoordinator == null ? MIN_SHARDS : this.shardCoordinator.getWorkerCount());
+            return;
+        }
+        int shards;
+        try{
+            shards = Integer.parseInt(splitCommand[SECONDARY_COMMAND_INDEX]);
+        }
+        catch (NumberFormatException e){
+            System.out.println(INCORRECT_FORMAT_SHARDS_MESSAGE);
+            return;
+        }
+        if (shards < MIN_SHARDS || shards > MAX_SHARDS){
+            System.out.println(EXCEEDING_BOUNDARIES_SHARDS_MESSAGE);
+            return;
+        }
+        if (this.shardCoordinator != null){
+            this.shardCoordinator.close();
+        }
+        this.shardCoordinator = shards == MIN_SHARDS ? null : new ShardCoordinator(shards);
+        System.out.printf(SHARDS_INFORMATION_MESSAGE, shards);
+    }
+
+    private void changePipeline(String[] splitCommand) {
+        if(splitCommand.length == 1){
+            if (this.bandPipeline == null){
+                System.out.println(PIPELINE_OFF_MESSAGE);
+            }
+            else{
+                System.out.printf(PIPELINE_INFORMATION_MESSAGE, this.bandPipeline.getBrightnessParallelism(),
+                        this.bandPipeline.getMatchingParallelism());
+            }
+            return;
+        }
+        if(splitCommand.length == MIN_LEN_COMMAND &&
+                splitCommand[SECONDARY_COMMAND_INDEX].equals(PIPELINE_OFF_COMMAND)){
+            this.bandPipeline = null;
+            System.out.println(PIPELINE_OFF_MESSAGE);
+            return;
+        }
+        if(splitCommand.length != PIPELINE_COMMAND_LENGTH){
+            System.out.println(INCORRECT_FORMAT_PIPELINE_MESSAGE);
+            return;
+        }
+        int brightnessParallelism;
+        int matchingParallelism;
+        try{
+            brightnessParallelism = Integer.parseInt(splitCommand[BRIGHTNESS_PARALLELISM_INDEX]);
+            matchingParallelism = Integer.parseInt(splitCommand[MATCHING_PARALLELISM_INDEX]);
+        }
+        catch (NumberFormatException e){
+            System.out.println(INCORRECT_FORMAT_PIPELINE_MESSAGE);
+            return;
+        }
+        if (Math.min(brightnessParallelism, matchingParallelism) < MIN_PARALLELISM ||
+                Math.max(brightnessParallelism, matchingParallelism) > MAX_PARALLELISM){
+            System.out.println(EXCEEDING_BOUNDARIES_PIPELINE_MESSAGE);
+            return;
+        }
+        this.bandPipeline = new BandPipeline(brightnessParallelism, matchingParallelism);
+        System.out.printf(PIPELINE_INFORMATION_MESSAGE, brightnessParallelism, matchingParallelism);
+    }
+
+    private void statsCommand(String[] splitCommand) {
+        if(splitCommand.length == 1){
+            System.out.println(PipelineMetrics.report());
+        } else if (splitCommand[SECONDARY_COMMAND_INDEX].equals(STATS_ON_COMMAND)) {
+            PipelineMetrics.setEnabled(true);
+        } else if (splitCommand[SECONDARY_COMMAND_INDEX].equals(STATS_OFF_COMMAND)) {
+            PipelineMetrics.setEnabled(false);
+        } else if (splitCommand[SECONDARY_COMMAND_INDEX].equals(STATS_RESET_COMMAND)) {
+            PipelineMetrics.reset();
+        }
+        else{
+            System.out.println(INCORRECT_FORMAT_STATS_MESSAGE);
+        }
     }
 
 
     /**
      * The main method that serves as the entry point of the application.
-     * It initializes a Shell object and starts the shell loop.
+     * It forces AWT into headless mode, optionally starts rendering the glyph cache in the background
+     * (-Dascii_art.preloadGlyphs=true), initializes a Shell object and starts the shell loop.
      *
      * @param args command line arguments (not used).
      */
     public static void main(String[] args) {
-        Shell shell = null;
-        try {
-            shell = new Shell();
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
+        System.setProperty(HEADLESS_PROPERTY, Boolean.TRUE.toString());
+        if (Boolean.getBoolean(PRELOAD_GLYPHS_PROPERTY)){
+            Thread preloader = new Thread(SubImgCharMatcher::preloadGlyphs, PRELOAD_GLYPHS_THREAD_NAME);
+            preloader.setDaemon(true);
+            preloader.start();
         }
-        
+        Shell shell = new Shell();
         shell.run();
     }
 }
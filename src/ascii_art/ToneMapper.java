@@ -0,0 +1,218 @@
+package ascii_art;
+
+import image.PaddingLayout;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * Remaps the block brightness of an image between the brightness and the matching stages, to bring out
+ * low contrast images. The transfer curve is tabulated once per image in a lookup table of BINS entries
+ * and applied to every block through it. The histogram the curve is built from is counted in parallel,
+ * every thread into its own array, and the arrays are summed when the threads are done.
+ */
+public final class ToneMapper {
+    /**
+     * A mapper that leaves the brightness as it is.
+     */
+    public static final ToneMapper NONE = new ToneMapper(ToneMode.NONE, 1);
+
+    private static final int BINS = 1024;
+    private static final int MAX_BIN = BINS - 1;
+    private static final double CLIP_FRACTION = 0.005;
+    private static final double HALF = 0.5;
+    private static final String GAMMA_NEEDS_POWER_MESSAGE = "gamma mapping needs a power, use gamma(double)";
+    private static final String NEEDS_WHOLE_IMAGE_MESSAGE = "%s mapping needs the whole image";
+
+    private final ToneMode mode;
+    private final double gamma;
+
+    private ToneMapper(ToneMode mode, double gamma) {
+        this.mode = mode;
+        this.gamma = gamma;
+    }
+
+    /**
+     * @param mode the tone mapping, other than GAMMA.
+     * @return a mapper of the given mode.
+     */
+    public static ToneMapper of(ToneMode mode) {
+        if (mode == ToneMode.GAMMA) {
+            throw new IllegalArgumentException(GAMMA_NEEDS_POWER_MESSAGE);
+        }
+        return mode == ToneMode.NONE ? NONE : new ToneMapper(mode, 1);
+    }
+
+    /**
+     * @param gamma the power to raise the brightness to, positive.
+     * @return a mapper raising the brightness to the given power.
+     */
+    public static ToneMapper gamma(double gamma) {
+        return new ToneMapper(ToneMode.GAMMA, gamma);
+    }
+
+    /**
+     * @return the tone mapping.
+     */
+    public ToneMode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * @return the power of GAMMA mapping.
+     */
+    public double getGamma() {
+        return this.gamma;
+    }
+
+    /**
+     * @return whether the mapping remaps every block on its own, without a histogram of the whole image,
+     *         so the strips of an image can be mapped apart, as shards and the band pipeline do.
+     */
+    public boolean isPerBlock() {
+        return this.mode == ToneMode.NONE || this.mode == ToneMode.GAMMA;
+    }
+
+    /**
+     * Remaps the brightness of every block of the image in place. Blocks that are entirely padding are
+     * left white and are not counted in the histogram, so the padding does not skew the levels or the
+     * equalization of the image.
+     *
+     * @param blockBrightness the brightness of every block, normalized to [0, 1].
+     * @param layout the geometry the image is padded with.
+     */
+    public void apply(double[][] blockBrightness, PaddingLayout layout) {
+        if (this.mode == ToneMode.NONE) {
+            return;
+        }
+        StageTimer timer = PipelineMetrics.start(Stage.TONE_MAPPING);
+        remap(blockBrightness, layout, 0, transferCurve(blockBrightness, layout));
+        timer.stop((long) blockBrightness.length * blockBrightness[0].length);
+    }
+
+    /**
+     * Remaps the brightness of a horizontal strip of blocks in place, for mappings that are per block.
+     *
+     * @param strip the brightness of every block of the strip, normalized to [0, 1].
+     * @param layout the geometry the image is padded with.
+     * @param firstBlockRow the row of blocks of the image the strip starts at.
+     * @throws IllegalStateException if the mapping needs the whole image, see isPerBlock.
+     */
+    public void applyToStrip(double[][] strip, PaddingLayout layout, int firstBlockRow) {
+        if (!isPerBlock()) {
+            throw new IllegalStateException(String.format(NEEDS_WHOLE_IMAGE_MESSAGE, this.mode));
+        }
+        if (this.mode == ToneMode.NONE) {
+            return;
+        }
+        StageTimer timer = PipelineMetrics.start(Stage.TONE_MAPPING);
+        remap(strip, layout, firstBlockRow, transferCurve(strip, layout));
+        timer.stop((long) strip.length * strip[0].length);
+    }
+
+    /*
+     * Maps every block that is not padding through the lookup table; the rows of the array start at the
+     * given row of blocks of the image.
+     */
+    private static void remap(double[][] blockBrightness, PaddingLayout layout, int firstBlockRow, double[] lut) {
+        int resolution = blockBrightness[0].length;
+        IntStream.range(0, blockBrightness.length).parallel().forEach(i -> {
+            double[] row = blockBrightness[i];
+            for (int j = 0; j < row.length; j++) {
+                if (!layout.isPaddingBlock(resolution, firstBlockRow + i, j)) {
+                    row[j] = lut[binOf(row[j])];
+                }
+            }
+        });
+    }
+
+    private double[] transferCurve(double[][] blockBrightness, PaddingLayout layout) {
+        double[] lut = new double[BINS];
+        if (this.mode == ToneMode.GAMMA) {
+            for (int bin = 0; bin < BINS; bin++) {
+                lut[bin] = Math.pow(valueOf(bin), this.gamma);
+            }
+            return lut;
+        }
+        long[] histogram = histogram(blockBrightness, layout);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (this.mode == ToneMode.AUTO_LEVELS) {
+            long clip = (long) (total * CLIP_FRACTION);
+            int low = 0;
+            long below = histogram[low];
+            while (low < MAX_BIN && below <= clip) {
+                below += histogram[++low];
+            }
+            int high = MAX_BIN;
+            long above = histogram[high];
+            while (high > 0 && above <= clip) {
+                above += histogram[--high];
+            }
+            for (int bin = 0; bin < BINS; bin++) {
+                lut[bin] = high <= low ? valueOf(bin) :
+                        Math.min(1, Math.max(0, (double) (bin - low) / (high - low)));
+            }
+            return lut;
+        }
+        int firstBin = 0;
+        while (firstBin < MAX_BIN && histogram[firstBin] == 0) {
+            firstBin++;
+        }
+        long darkest = histogram[firstBin];
+        long cumulative = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            cumulative += histogram[bin];
+            lut[bin] = total == darkest ? valueOf(bin) : Math.max(0, (double) (cumulative - darkest) / (total - darkest));
+        }
+        return lut;
+    }
+
+    /*
+     * Every parallel subtask counts its rows into an array of its own, the arrays are added pairwise as
+     * the subtasks join, so no counter is ever shared between threads. Padding blocks are skipped.
+     */
+    private static long[] histogram(double[][] blockBrightness, PaddingLayout layout) {
+        int resolution = blockBrightness[0].length;
+        return IntStream.range(0, blockBrightness.length).parallel().collect(() -> new long[BINS],
+                (counts, i) -> {
+                    for (int j = 0; j < resolution; j++) {
+                        if (!layout.isPaddingBlock(resolution, i, j)) {
+                            counts[binOf(blockBrightness[i][j])]++;
+                        }
+                    }
+                },
+                (counts, other) -> {
+                    for (int bin = 0; bin < BINS; bin++) {
+                        counts[bin] += other[bin];
+                    }
+                });
+    }
+
+    private static int binOf(double brightness) {
+        return Math.min(MAX_BIN, Math.max(0, (int) (brightness * MAX_BIN + HALF)));
+    }
+
+    private static double valueOf(int bin) {
+        return (double) bin / MAX_BIN;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ToneMapper)) {
+            return false;
+        }
+        ToneMapper other = (ToneMapper) o;
+        return this.mode == other.mode && this.gamma == other.gamma;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.mode, this.gamma);
+    }
+}
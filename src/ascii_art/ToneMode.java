@@ -0,0 +1,23 @@
+package ascii_art;
+
+/**
+ * The ways ToneMapper can remap block brightness before it is matched to characters.
+ */
+public enum ToneMode {
+    /**
+     * The brightness is matched as it is.
+     */
+    NONE,
+    /**
+     * The brightness range of the image, without its darkest and brightest outliers, is stretched to [0, 1].
+     */
+    AUTO_LEVELS,
+    /**
+     * Every brightness is raised to a power, below 1 brightens the image and above 1 darkens it.
+     */
+    GAMMA,
+    /**
+     * Histogram equalization, the brightness of every block becomes the share of blocks darker than it.
+     */
+    EQUALIZE
+}
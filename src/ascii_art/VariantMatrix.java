@@ -0,0 +1,146 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import image.PaddedImage;
+import image_char_matching.CharMatcherSnapshot;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Renders one image in many variants: every charset at every resolution. The image is decoded and its
+ * luminance pyramid built once, the block brightness of every resolution is read from the pyramid once,
+ * and only the mapping to characters runs per variant, all of them in parallel. The variants are written
+ * to their outputs one after the other in a fixed order, so outputs sharing a destination need no locking.
+ */
+public class VariantMatrix {
+    private final PaddedImage paddedImage;
+    private final List<CharMatcherSnapshot> charsets;
+    private final List<Integer> resolutions;
+    private final DitherMode ditherMode;
+    private final ToneMapper toneMapper;
+
+    /**
+     * Provides the output of every variant.
+     */
+    public interface OutputFactory {
+        /**
+         * @param charsetIndex the index of the charset of the variant.
+         * @param resolution the resolution of the variant.
+         * @return the output to write the variant to.
+         */
+        AsciiOutput outputFor(int charsetIndex, int resolution);
+    }
+
+    /**
+     * Constructs the variants of an image.
+     *
+     * @param paddedImage the image to be converted into ASCII art.
+     * @param charsets the charsets to map to.
+     * @param resolutions the resolutions to render at.
+     * @param ditherMode the way to spread the error of mapping brightness to characters.
+     * @param toneMapper the remapping of the block brightness, applied once per resolution.
+     */
+    public VariantMatrix(PaddedImage paddedImage, List<CharMatcherSnapshot> charsets, List<Integer> resolutions,
+                         DitherMode ditherMode, ToneMapper toneMapper) {
+        this.paddedImage = paddedImage;
+        this.charsets = new ArrayList<>(charsets);
+        this.resolutions = new ArrayList<>(resolutions);
+        this.ditherMode = ditherMode;
+        this.toneMapper = toneMapper;
+    }
+
+    /**
+     * Renders every variant and writes it to its output, resolution by resolution and charset by charset
+     * in the order they were given.
+     *
+     * @param outputs the output of every variant.
+     * @return the number of variants written.
+     * @throws VariantFailedException if a variant could not be rendered or written; the variants before it
+     *         are written.
+     */
+    public int render(OutputFactory outputs) {
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        List<List<CompletableFuture<char[][]>>> variants = new ArrayList<>();
+        for (int resolution : this.resolutions) {
+            CompletableFuture<double[][]> blockBrightness = CompletableFuture.supplyAsync(() -> {
+                StageTimer timer = PipelineMetrics.start(Stage.BRIGHTNESS);
+                double[][] brightness = this.paddedImage.blockBrightness(resolution);
+                timer.stop((long) brightness.length * resolution);
+                this.toneMapper.apply(brightness, this.paddedImage.getLayout());
+                return brightness;
+            });
+            pending.add(blockBrightness);
+            List<CompletableFuture<char[][]>> charImages = new ArrayList<>();
+            for (CharMatcherSnapshot charset : this.charsets) {
+                charImages.add(blockBrightness.thenApplyAsync(brightness -> {
+                    StageTimer timer = PipelineMetrics.start(Stage.MATCHING);
+                    char[][] charImage = AsciiArtAlgorithm.mapToChars(brightness, charset, this.ditherMode);
+                    timer.stop((long) brightness.length * resolution);
+                    return charImage;
+                }));
+            }
+            pending.addAll(charImages);
+            variants.add(charImages);
+        }
+        int written = 0;
+        for (int i = 0; i < this.resolutions.size(); i++) {
+            for (int j = 0; j < this.charsets.size(); j++) {
+                int resolution = this.resolutions.get(i);
+                try {
+                    char[][] charImage = variants.get(i).get(j).join();
+                    StageTimer timer = PipelineMetrics.start(Stage.OUTPUT);
+                    outputs.outputFor(j, resolution).out(charImage);
+                    timer.stop((long) charImage.length * charImage[0].length);
+                } catch (CompletionException e) {
+                    cancelAll(pending);
+                    throw new VariantFailedException(j, resolution, e.getCause());
+                } catch (RuntimeException e) {
+                    cancelAll(pending);
+                    throw new VariantFailedException(j, resolution, e);
+                }
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /*
+     * Cancels the brightness and mapping tasks that have not finished, so a failed render does not leave
+     * them running on the common pool. Tasks that have not started never run, running ones finish but
+     * are not followed by the tasks that depend on them.
+     */
+    private static void cancelAll(List<CompletableFuture<?>> pending) {
+        for (CompletableFuture<?> task : pending) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * A variant that could not be rendered or written, with the charset and resolution it was rendered at.
+     */
+    static final class VariantFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int charsetIndex;
+        private final int resolution;
+
+        VariantFailedException(int charsetIndex, int resolution, Throwable cause) {
+            super(cause);
+            this.charsetIndex = charsetIndex;
+            this.resolution = resolution;
+        }
+
+        int getCharsetIndex() {
+            return this.charsetIndex;
+        }
+
+        int getResolution() {
+            return this.resolution;
+        }
+    }
+}
@@ -1,16 +1,35 @@
 package ascii_output;
 
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Output a 2D array of chars to the console.
+ * The chars are written in UTF-8 whatever the platform encoding is, so Unicode charsets display
+ * correctly, and every row is printed at once. They are written through System.out as it is when the
+ * output begins, so redirecting System.out redirects the art too, in order with the other messages.
  * @author Dan Nirel
- */public class ConsoleAsciiOutput implements AsciiOutput{
+ */public class ConsoleAsciiOutput implements StreamingAsciiOutput{
+    private final StringBuilder line = new StringBuilder();
+    private PrintStream utf8Out;
+
+    @Override
+    public void begin(int columns) {
+        System.out.flush();
+        utf8Out = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+    }
+
     @Override
-    public void out(char[][] chars) {
-        for (int y = 0; y < chars.length ; y++) {
-            for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
-            }
-            System.out.println();
+    public void row(char[] row) {
+        line.setLength(0);
+        for (int x = 0; x < row.length; x++) {
+            line.append(row[x]).append(' ');
         }
+        utf8Out.println(line);
+    }
+
+    @Override
+    public void end() {
+        utf8Out.flush();
     }
 }
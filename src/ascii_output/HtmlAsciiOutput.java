@@ -3,18 +3,22 @@ package ascii_output;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
 
 /**
  * Output a 2D array of chars to an HTML file viewable in a web browser.
+ * The file is written in UTF-8, so Unicode charsets display correctly, and can be written row by row.
+ * Closing the output before end closes the file, leaving it unfinished.
  * @author Dan Nirel
  */
-public class HtmlAsciiOutput implements AsciiOutput {
+public class HtmlAsciiOutput implements StreamingAsciiOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
 
     private final String fontName;
     private final String filename;
+    private BufferedWriter writer;
 
     public HtmlAsciiOutput(String filename, String fontName) {
         this.fontName = fontName;
@@ -22,11 +26,13 @@ public class HtmlAsciiOutput implements AsciiOutput {
     }
 
     @Override
-    public void out(char[][] chars) {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+    public void begin(int columns) {
+        try {
+            writer = new BufferedWriter(new FileWriter(filename, StandardCharsets.UTF_8));
             writer.write(String.format(
                 "<!DOCTYPE html>\n"+
                 "<html>\n"+
+                "<head><meta charset=\"UTF-8\"></head>\n"+
                 "<body style=\""+
                     "\tCOLOR:#000000;"+
                     "\tTEXT-ALIGN:center;"+
@@ -37,27 +43,73 @@ public class HtmlAsciiOutput implements AsciiOutput {
                     "\tFONT-SIZE:%frem;"+
                     "\tLETTER-SPACING:0.15em;"+
                     "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
-
-            for(int y = 0 ; y < chars.length ; y++) {
-                for (int x = 0; x < chars[y].length ; x++) {
-                    String htmlRep;
-                    switch(chars[y][x]) {
-                        case '<': htmlRep = "&lt;";  break;
-                        case '>': htmlRep = "&gt;";  break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
+                    fontName, BASE_FONT_SIZE/columns, BASE_LINE_SPACING));
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void row(char[] row) {
+        if(writer == null) {
+            return;
+        }
+        try {
+            for (int x = 0; x < row.length ; x++) {
+                String htmlRep;
+                switch(row[x]) {
+                    case '<': htmlRep = "&lt;";  break;
+                    case '>': htmlRep = "&gt;";  break;
+                    case '&': htmlRep = "&amp;"; break;
+                    default:  htmlRep = String.valueOf(row[x]);
                 }
-                writer.newLine();
+                writer.write(htmlRep);
             }
+            writer.newLine();
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void end() {
+        if(writer == null) {
+            return;
+        }
+        try {
             writer.write(
                 "</p>\n"+
                 "</body>\n"+
                 "</html>\n");
+            writer.close();
+            writer = null;
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void close() {
+        if(writer == null) {
+            return;
+        }
+        try {
+            writer.close();
         } catch(IOException e) {
             Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
         }
+        writer = null;
+    }
+
+    private void fail() {
+        Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        if(writer != null) {
+            try {
+                writer.close();
+            } catch(IOException ignored) {
+                // the failure is already logged
+            }
+            writer = null;
+        }
     }
 }
@@ -0,0 +1,43 @@
+package ascii_output;
+
+/**
+ * An AsciiOutput that can also be fed one row at a time, so the whole 2D array never has to exist.
+ * A conversion calls begin once, row for every row from top to bottom, and end once. A conversion that
+ * fails part way closes the output instead of ending it, to release what begin opened.
+ */
+public interface StreamingAsciiOutput extends AsciiOutput, AutoCloseable {
+    /**
+     * Starts a new output.
+     *
+     * @param columns the number of chars in every row.
+     */
+    void begin(int columns);
+
+    /**
+     * Outputs the next row of chars.
+     *
+     * @param row the chars of the row.
+     */
+    void row(char[] row);
+
+    /**
+     * Finishes the output started by begin.
+     */
+    void end();
+
+    /**
+     * Releases what begin opened without finishing the output. Does nothing once the output is ended.
+     */
+    @Override
+    default void close() {
+    }
+
+    @Override
+    default void out(char[][] chars) {
+        begin(chars[0].length);
+        for (char[] row : chars) {
+            row(row);
+        }
+        end();
+    }
+}
@@ -0,0 +1,160 @@
+package image;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A luminance plane stored off the Java heap, either in direct buffers or in a memory mapped
+ * temporary file. A single buffer is limited to 2GB, so the plane is split into chunks.
+ * Closing the plane frees the buffers right away instead of waiting for the garbage collector,
+ * and deletes the temporary file. Accessing a closed plane throws IllegalStateException rather than
+ * touching freed memory; PaddedImage keeps other threads from reading a plane while it is closed.
+ */
+class BufferLuminancePlane implements LuminancePlane {
+    private static final int CHUNK_SHIFT = 27;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final String TEMP_FILE_PREFIX = "luminance";
+    private static final String TEMP_FILE_SUFFIX = ".plane";
+    private static final String CLOSED_MESSAGE = "luminance plane is closed";
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // buffers are left to the garbage collector
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final long size;
+    private final ByteBuffer[] buffers;
+    private final DoubleBuffer[] chunks;
+    private final Path file;
+    private boolean closed = false;
+
+    private BufferLuminancePlane(long size, ByteBuffer[] buffers, Path file) {
+        this.size = size;
+        this.buffers = buffers;
+        this.chunks = new DoubleBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            this.chunks[i] = buffers[i].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        this.file = file;
+    }
+
+    /**
+     * Allocates a plane in direct buffers.
+     *
+     * @param size the number of values in the plane.
+     * @return the plane.
+     */
+    static BufferLuminancePlane allocateDirect(long size) {
+        ByteBuffer[] buffers = new ByteBuffer[chunkCount(size)];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(Math.toIntExact(chunkLength(size, i) * Double.BYTES));
+        }
+        return new BufferLuminancePlane(size, buffers, null);
+    }
+
+    /**
+     * Allocates a plane in a memory mapped temporary file, so it is paged by the operating system.
+     *
+     * @param size the number of values in the plane.
+     * @return the plane.
+     */
+    static BufferLuminancePlane allocateMapped(long size) {
+        try {
+            Path file = Files.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+            ByteBuffer[] buffers = new ByteBuffer[chunkCount(size)];
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_SIZE * Double.BYTES,
+                            chunkLength(size, i) * Double.BYTES);
+                }
+            }
+            return new BufferLuminancePlane(size, buffers, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public double get(long index) {
+        checkOpen();
+        return this.chunks[(int) (index >>> CHUNK_SHIFT)].get((int) index & CHUNK_MASK);
+    }
+
+    @Override
+    public void set(long index, double value) {
+        checkOpen();
+        this.chunks[(int) (index >>> CHUNK_SHIFT)].put((int) index & CHUNK_MASK, value);
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        for (ByteBuffer buffer : this.buffers) {
+            free(buffer);
+        }
+        if (this.file != null) {
+            try {
+                Files.deleteIfExists(this.file);
+            } catch (IOException e) {
+                this.file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException(CLOSED_MESSAGE);
+        }
+    }
+
+    private static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            // left to the garbage collector
+        }
+    }
+
+    private static int chunkCount(long size) {
+        return Math.toIntExact(Math.max(1, (size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT));
+    }
+
+    private static long chunkLength(long size, int chunk) {
+        return Math.min(CHUNK_SIZE, size - chunk * CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,52 @@
+package image;
+
+/**
+ * A luminance plane backed by a double array on the Java heap. Closing the plane drops the array, and
+ * accessing a closed plane throws IllegalStateException.
+ */
+class HeapLuminancePlane implements LuminancePlane {
+    private static final double[] RELEASED = new double[0];
+    private static final String CLOSED_MESSAGE = "luminance plane is closed";
+
+    private final long size;
+    private double[] values;
+    private boolean closed = false;
+
+    /**
+     * @param size the number of values in the plane, at most Integer.MAX_VALUE.
+     * @throws ArithmeticException if the size does not fit in an array.
+     */
+    HeapLuminancePlane(long size) {
+        this.values = new double[Math.toIntExact(size)];
+        this.size = size;
+    }
+
+    @Override
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public double get(long index) {
+        checkOpen();
+        return this.values[(int) index];
+    }
+
+    @Override
+    public void set(long index, double value) {
+        checkOpen();
+        this.values[(int) index] = value;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.values = RELEASED;
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException(CLOSED_MESSAGE);
+        }
+    }
+}
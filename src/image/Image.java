@@ -1,5 +1,9 @@
 package image;
 
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -19,6 +23,8 @@ public class Image {
     private static final double GREEN_COEFFICIENT = 0.7152;
     private static final double BLUE_COEFFICIENT = 0.0722;
     private static final int MAX_RGB = 255;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
     private final Color[][] pixelArray;
     private final int width;
     private final int height;
@@ -30,6 +36,7 @@ public class Image {
      * @throws IOException if an error occurs during reading the image file.
      */
     public Image(String filename) throws IOException {
+        StageTimer timer = PipelineMetrics.start(Stage.DECODE);
         BufferedImage im = ImageIO.read(new File(filename));
         width = im.getWidth();
         height = im.getHeight();
@@ -41,6 +48,7 @@ public class Image {
                 pixelArray[i][j]=new Color(im.getRGB(j, i));
             }
         }
+        timer.stop((long) width * height);
 
     }
 
@@ -130,11 +138,19 @@ public class Image {
         return imageBrightness / (this.height * this.width * MAX_RGB);
     }
 
-    private static double turnToGrey(Color color){
+    static double turnToGrey(Color color){
         return color.getRed() * RED_COEFFICIENT +
                 color.getGreen() * GREEN_COEFFICIENT + color.getBlue() * BLUE_COEFFICIENT;
     }
 
+    /*
+     * The grey level of a color packed as by Color.getRGB, equal to turnToGrey of the Color.
+     */
+    static double turnToGrey(int rgb){
+        return (rgb >> RED_SHIFT & MAX_RGB) * RED_COEFFICIENT +
+                (rgb >> GREEN_SHIFT & MAX_RGB) * GREEN_COEFFICIENT + (rgb & MAX_RGB) * BLUE_COEFFICIENT;
+    }
+
 
 
 }
@@ -0,0 +1,30 @@
+package image;
+
+/**
+ * A flat, row major plane of brightness values, stored on the heap or off it.
+ * A plane must be closed once its image is no longer used, after which it must not be accessed.
+ */
+interface LuminancePlane extends AutoCloseable {
+    /**
+     * @return the number of values in the plane.
+     */
+    long size();
+
+    /**
+     * @param index the index of a value.
+     * @return the value at the index.
+     */
+    double get(long index);
+
+    /**
+     * @param index the index of a value.
+     * @param value the value to store at the index.
+     */
+    void set(long index, double value);
+
+    /**
+     * Releases the memory of the plane.
+     */
+    @Override
+    void close();
+}
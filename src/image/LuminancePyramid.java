@@ -0,0 +1,114 @@
+package image;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A mipmap pyramid of the luminance of an image whose dimensions are powers of two.
+ * Level 0 holds the brightness of every pixel, normalized to [0, 1], and each following level is a
+ * 2x2 reduction of the level below it, so a cell of level k is the mean brightness of a 2^k by 2^k
+ * block of pixels. Levels are built lazily in the storage of the base plane, and all of them
+ * together take at most 4/3 of the memory of level 0.
+ */
+class LuminancePyramid implements AutoCloseable {
+    private static final int REDUCTION_FACTOR = 2;
+    private static final double CELLS_PER_REDUCTION = 4.0;
+    private static final String CLOSED_MESSAGE = "luminance pyramid is closed";
+
+    private final List<LuminancePlane> levels = new ArrayList<>();
+    private final LuminanceStorage storage;
+    private final int baseWidth;
+    private final int baseHeight;
+    private boolean closed = false;
+
+    /**
+     * Constructs a pyramid whose base level is the given luminance plane.
+     *
+     * @param basePlane the row major brightness of every pixel, normalized to [0, 1].
+     * @param storage the storage the base plane was allocated in, used for the other levels.
+     * @param baseWidth the width of the plane.
+     * @param baseHeight the height of the plane.
+     */
+    LuminancePyramid(LuminancePlane basePlane, LuminanceStorage storage, int baseWidth, int baseHeight) {
+        this.storage = storage;
+        this.baseWidth = baseWidth;
+        this.baseHeight = baseHeight;
+        this.levels.add(basePlane);
+    }
+
+    /**
+     * @param level a level of the pyramid.
+     * @return the width of the level in cells.
+     */
+    int widthOf(int level) {
+        return Math.max(1, this.baseWidth >> level);
+    }
+
+    /**
+     * @param level a level of the pyramid.
+     * @return the height of the level in cells.
+     */
+    int heightOf(int level) {
+        return Math.max(1, this.baseHeight >> level);
+    }
+
+    /**
+     * @return the number of levels the pyramid can have.
+     */
+    int levelCount() {
+        return Integer.numberOfTrailingZeros(Math.min(this.baseWidth, this.baseHeight)) + 1;
+    }
+
+    /**
+     * Returns the given level of the pyramid, building it and the levels below it if needed.
+     *
+     * @param level the level to return.
+     * @return the row major cells of the level.
+     * @throws UncheckedIOException if the storage cannot allocate a level.
+     */
+    synchronized LuminancePlane level(int level) {
+        if (this.closed) {
+            throw new IllegalStateException(CLOSED_MESSAGE);
+        }
+        while (this.levels.size() <= level) {
+            int below = this.levels.size() - 1;
+            this.levels.add(reduce(this.levels.get(below), widthOf(below), heightOf(below)));
+        }
+        return this.levels.get(level);
+    }
+
+    /**
+     * Releases the memory of all the levels.
+     */
+    @Override
+    public synchronized void close() {
+        for (LuminancePlane plane : this.levels) {
+            plane.close();
+        }
+        this.levels.clear();
+        this.closed = true;
+    }
+
+    private LuminancePlane reduce(LuminancePlane plane, int width, int height) {
+        int reducedWidth = width / REDUCTION_FACTOR;
+        int reducedHeight = height / REDUCTION_FACTOR;
+        LuminancePlane reduced;
+        try {
+            reduced = this.storage.allocate((long) reducedWidth * reducedHeight);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < reducedHeight; i++) {
+            long top = (long) i * REDUCTION_FACTOR * width;
+            long bottom = top + width;
+            for (int j = 0; j < reducedWidth; j++) {
+                int left = j * REDUCTION_FACTOR;
+                reduced.set((long) i * reducedWidth + j, (plane.get(top + left) + plane.get(top + left + 1) +
+                        plane.get(bottom + left) + plane.get(bottom + left + 1)) / CELLS_PER_REDUCTION);
+            }
+        }
+        return reduced;
+    }
+}
@@ -0,0 +1,68 @@
+package image;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+
+/**
+ * Where the luminance planes of a PaddedImage are stored. The default is taken from the
+ * ascii_art.luminanceStorage system property (heap, direct or mapped) and is heap if it is not set.
+ */
+public enum LuminanceStorage {
+    /**
+     * Double arrays on the Java heap.
+     */
+    HEAP,
+    /**
+     * Direct buffers outside the Java heap.
+     */
+    DIRECT,
+    /**
+     * A memory mapped temporary file, for planes larger than the available memory.
+     */
+    MAPPED;
+
+    private static final String STORAGE_PROPERTY = "ascii_art.luminanceStorage";
+    private static final String UNKNOWN_STORAGE_MESSAGE = "Did not use luminance storage %s due to incorrect" +
+            " format, using heap.";
+    private static final String TOO_LARGE_MESSAGE = "Image too large for luminance storage %s!";
+
+    /**
+     * @return the storage named by the ascii_art.luminanceStorage system property, or HEAP if it is not
+     * set or names no storage, in which case a message is printed to the standard error.
+     */
+    public static LuminanceStorage fromSystemProperty() {
+        String name = System.getProperty(STORAGE_PROPERTY);
+        if (name == null) {
+            return HEAP;
+        }
+        for (LuminanceStorage storage : values()) {
+            if (storage.name().equals(name.trim().toUpperCase(Locale.ROOT))) {
+                return storage;
+            }
+        }
+        System.err.println(String.format(UNKNOWN_STORAGE_MESSAGE, name));
+        return HEAP;
+    }
+
+    /*
+     * Allocates a plane of the given number of values. A plane the storage cannot index and a temporary
+     * file that cannot be created or mapped are reported as IOException, like the decoding errors.
+     */
+    LuminancePlane allocate(long size) throws IOException {
+        try {
+            switch (this) {
+                case DIRECT:
+                    return BufferLuminancePlane.allocateDirect(size);
+                case MAPPED:
+                    return BufferLuminancePlane.allocateMapped(size);
+                default:
+                    return new HeapLuminancePlane(size);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (ArithmeticException e) {
+            throw new IOException(String.format(TOO_LARGE_MESSAGE, this), e);
+        }
+    }
+}
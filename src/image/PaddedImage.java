@@ -1,16 +1,40 @@
 package image;
 
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class PaddedImage extends Image{
-    private static final int LOG_BASE = 2;
-    private static final int ARRAY_DIMENSION = 2;
-
+/**
+ * An image padded with white to dimensions that are powers of two, so it can be divided into
+ * square sub-images. The pixels are converted to brightness as they are decoded and written straight
+ * into the base plane of a luminance pyramid, in the chosen LuminanceStorage; their colors are not
+ * kept. The brightness of the sub-images is read from the pyramid; close the image to release it.
+ * Reads hold a read lock and closing takes the write lock, so an image closed while other threads read
+ * it waits for them, and reading a closed image throws IllegalStateException.
+ */
+public class PaddedImage implements AutoCloseable{
     private static final int MAX_RGB = 255;
-    private Color[][] paddedPixelArray;
-    private int widthWithPadding;
-    private int heightWithPadding;
+    private static final int WHITE = new Color(MAX_RGB, MAX_RGB, MAX_RGB).getRGB();
+    private static final int REGION_BAND_ROWS = 256;
+    private static final String UNSUPPORTED_FORMAT_MESSAGE = "Unsupported image format!";
+    private static final String CLOSED_MESSAGE = "padded image is closed";
+    private final int width;
+    private final int height;
+    private final PaddingLayout layout;
+    private final int widthWithPadding;
+    private final int heightWithPadding;
+    private final LuminancePlane basePlane;
+    private final LuminancePyramid luminancePyramid;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed = false;
 
 
     /**
@@ -20,93 +44,253 @@ public class PaddedImage extends Image{
      * @throws IOException if an error occurs during reading the file.
      */
     public PaddedImage(String filename) throws IOException{
-        super(filename);
-        this.paddedPixelArray = this.imagePadding(extractPixelArray());
+        this(filename, LuminanceStorage.fromSystemProperty());
     }
 
+    /**
+     * Constructor for PaddedImage that takes a filename and where to store its luminance planes.
+     *
+     * @param filename the filename of the image to be loaded.
+     * @param luminanceStorage the storage of the luminance planes.
+     * @throws IOException if an error occurs during reading the file.
+     */
+    public PaddedImage(String filename, LuminanceStorage luminanceStorage) throws IOException{
+        this(PipelineMetrics.start(Stage.DECODE), decode(filename), luminanceStorage);
+    }
 
     /**
-     * Constructor for PaddedImage that takes a pixel array, width, and height.
+     * Constructor for PaddedImage that takes a region of an image file, decoding only the tiles
+     * the region overlaps, a band of rows at a time.
      *
-     * @param pixelArray the array of pixels representing the image.
+     * @param source the image file.
+     * @param region the region of the image to pad.
+     * @throws IOException if an error occurs while decoding.
+     */
+    public PaddedImage(TiledImageSource source, Rectangle region) throws IOException{
+        this(region.width, region.height, LuminanceStorage.fromSystemProperty());
+        try {
+            for (int row = 0; row < region.height; row += REGION_BAND_ROWS){
+                int bandRows = Math.min(REGION_BAND_ROWS, region.height - row);
+                int[] band = source.readRegion(region.x, region.y + row, region.width, bandRows);
+                for (int i = 0; i < bandRows; i++){
+                    setRow(row + i, band, i * region.width);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            this.luminancePyramid.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Constructor for PaddedImage that takes packed pixels, width, and height.
+     *
+     * @param pixels the pixels of the image row by row, packed as by Color.getRGB.
      * @param width the width of the image.
      * @param height the height of the image.
+     * @throws IOException if the luminance planes cannot be allocated.
      */
-    public PaddedImage(Color[][] pixelArray, int width, int height) {
-        super(pixelArray, width, height);
-        this.paddedPixelArray = this.imagePadding(pixelArray);
+    public PaddedImage(int[] pixels, int width, int height) throws IOException{
+        this(width, height, LuminanceStorage.fromSystemProperty());
+        for (int i = 0; i < height; i++){
+            setRow(i, pixels, i * width);
+        }
     }
 
     /**
-     * Divides the padded image into sub-images of a given resolution.
+     * Constructor for PaddedImage that takes a pixel array, width, and height.
      *
-     * @param resolution the resolution of the sub-images.
-     * @return a 2D array of sub-images.
+     * @param pixelArray the array of pixels representing the image.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @throws IOException if the luminance planes cannot be allocated.
      */
-    public Image[][] divideToSubImages(int resolution){
-        int squareSize = this.widthWithPadding /resolution;
-        int squaresPerCol = heightWithPadding / squareSize;
-        Image[][] dividedImages = new Image[squaresPerCol][resolution];
-        for(int i = 0; i < squaresPerCol; i++){
-            for(int j = 0; j < resolution; j++){
-                dividedImages[i][j] = new Image(extractSubImage(squareSize, i, j), squareSize, squareSize);
+    public PaddedImage(Color[][] pixelArray, int width, int height) throws IOException{
+        this(width, height, LuminanceStorage.fromSystemProperty());
+        int[] row = new int[width];
+        for (int i = 0; i < height; i++){
+            for (int j = 0; j < width; j++){
+                row[j] = pixelArray[i][j].getRGB();
             }
+            setRow(i, row, 0);
         }
-        return dividedImages;
     }
 
+    /*
+     * The timer is started by the caller before the image is decoded, and also covers writing its rows.
+     */
+    private PaddedImage(StageTimer timer, BufferedImage image, LuminanceStorage luminanceStorage)
+            throws IOException{
+        this(image.getWidth(), image.getHeight(), luminanceStorage);
+        int[] row = new int[this.width];
+        try {
+            for (int i = 0; i < this.height; i++){
+                image.getRGB(0, i, this.width, 1, row, 0, this.width);
+                setRow(i, row, 0);
+            }
+        } catch (RuntimeException e) {
+            this.luminancePyramid.close();
+            throw e;
+        }
+        timer.stop((long) this.width * this.height);
+    }
 
-    private void calculateDimensionsWithPadding(){
-        this.heightWithPadding = (int) Math.ceil(Math.log(super.getHeight())/Math.log(LOG_BASE));
-        this.heightWithPadding = (int)Math.pow(2, this.heightWithPadding);
-        this.widthWithPadding = (int) Math.ceil(Math.log(super.getWidth())/Math.log(LOG_BASE));
-        this.widthWithPadding = (int)Math.pow(2, this.widthWithPadding);
+    /*
+     * Allocates the base plane of the pyramid and fills its padding with white; the rows of the image
+     * are written by the public constructors, which close the pyramid if they fail to.
+     */
+    private PaddedImage(int width, int height, LuminanceStorage luminanceStorage) throws IOException{
+        this.width = width;
+        this.height = height;
+        this.layout = new PaddingLayout(width, height);
+        this.widthWithPadding = this.layout.getPaddedWidth();
+        this.heightWithPadding = this.layout.getPaddedHeight();
+        this.basePlane = luminanceStorage.allocate((long) this.heightWithPadding * this.widthWithPadding);
+        this.luminancePyramid = new LuminancePyramid(this.basePlane, luminanceStorage, this.widthWithPadding,
+                this.heightWithPadding);
+        imagePadding();
     }
 
-    private Color[][] imagePadding(Color[][] pixelArray){
-        calculateDimensionsWithPadding();
-        Color[][] newPixelArray = new Color[this.heightWithPadding][this.widthWithPadding];
-        int heightDiff = (this.heightWithPadding - super.getHeight()) / ARRAY_DIMENSION;
-        int widthDiff = (this.widthWithPadding - this.getWidth()) / ARRAY_DIMENSION;
-        if(heightDiff == 0 && widthDiff == 0){
-            return pixelArray;
-        }
-        for(int i = 0; i < this.heightWithPadding; i++){
-            for(int j = 0; j < this.widthWithPadding; j++){
-                if (i < heightDiff || j < widthDiff || i >= super.getHeight() + heightDiff || j >= super.getWidth() + widthDiff){
-                    newPixelArray[i][j] = new Color(MAX_RGB, MAX_RGB, MAX_RGB);
-                }
-                else{
-                    newPixelArray[i][j] = pixelArray[i - heightDiff][j - widthDiff];
-                }
+    /**
+     * Returns the width of the image, without the padding.
+     *
+     * @return the width of the image.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Returns the height of the image, without the padding.
+     *
+     * @return the height of the image.
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Returns the geometry the image is padded with.
+     *
+     * @return the padding layout of the image.
+     */
+    public PaddingLayout getLayout() {
+        return this.layout;
+    }
+
+    /**
+     * Calculates the brightness of every sub-image of a given resolution, the mean brightness of its
+     * pixels. When the sub-image size is a power of two the values are read from the luminance pyramid,
+     * whose levels are built lazily, so after the first call any such resolution costs one read per
+     * sub-image.
+     *
+     * @param resolution the number of sub-images in a row.
+     * @return a 2D array of the brightness of every sub-image, normalized to [0, 1].
+     * @throws IllegalStateException if the image is closed.
+     */
+    public double[][] blockBrightness(int resolution){
+        this.closeLock.readLock().lock();
+        try {
+            if (this.closed){
+                throw new IllegalStateException(CLOSED_MESSAGE);
             }
+            return readBlockBrightness(resolution);
+        } finally {
+            this.closeLock.readLock().unlock();
         }
-        return newPixelArray;
     }
 
-    private Color[][] extractPixelArray(){
-        Color[][] pixelArray = new Color[super.getHeight()][super.getWidth()];
-        for(int x = 0; x < super.getHeight(); x++){
-            for(int y = 0; y < super.getWidth(); y++){
-                pixelArray[x][y] = super.getPixel(x, y);
+    /**
+     * Releases the luminance planes of the image, once no other thread reads them. The image must
+     * not be used afterwards.
+     */
+    @Override
+    public void close(){
+        this.closeLock.writeLock().lock();
+        try {
+            if (!this.closed){
+                this.closed = true;
+                this.luminancePyramid.close();
             }
+        } finally {
+            this.closeLock.writeLock().unlock();
         }
-        return pixelArray;
+    }
 
+    private double[][] readBlockBrightness(int resolution){
+        int squareSize = this.widthWithPadding / resolution;
+        if (Integer.bitCount(squareSize) != 1 || this.heightWithPadding % squareSize != 0){
+            return bruteForceBlockBrightness(resolution);
+        }
+        int level = Integer.numberOfTrailingZeros(squareSize);
+        LuminancePlane cells = this.luminancePyramid.level(level);
+        int squaresPerCol = heightWithPadding / squareSize;
+        double[][] brightness = new double[squaresPerCol][resolution];
+        for(int i = 0; i < squaresPerCol; i++){
+            for(int j = 0; j < resolution; j++){
+                brightness[i][j] = cells.get((long) i * resolution + j);
+            }
+        }
+        return brightness;
     }
 
-    private Color[][] extractSubImage(int squareSize, int squareRow, int squareCol){
-        Color[][] subImageArr = new Color[squareSize][squareSize];
-        int topRow = squareRow * squareSize;
-        int leftCol = squareCol * squareSize;
-        for(int i = topRow; i < topRow + squareSize; i++){
-            for(int j = leftCol; j < leftCol + squareSize; j++){
-                subImageArr[i - topRow][j - leftCol] = this.paddedPixelArray[i][j];
+    /*
+     * Averages the sub-images straight from the base plane, for sizes the pyramid has no level of.
+     */
+    private double[][] bruteForceBlockBrightness(int resolution){
+        StageTimer timer = PipelineMetrics.start(Stage.DIVISION);
+        int squareSize = this.widthWithPadding / resolution;
+        int squaresPerCol = heightWithPadding / squareSize;
+        double blockPixels = (double) squareSize * squareSize;
+        double[][] brightness = new double[squaresPerCol][resolution];
+        for(int i = 0; i < squaresPerCol; i++){
+            for(int j = 0; j < resolution; j++){
+                double sum = 0;
+                for(int row = i * squareSize; row < (i + 1) * squareSize; row++){
+                    long rowStart = (long) row * this.widthWithPadding;
+                    for(int col = j * squareSize; col < (j + 1) * squareSize; col++){
+                        sum += this.basePlane.get(rowStart + col);
+                    }
+                }
+                brightness[i][j] = sum / blockPixels;
             }
         }
-        return subImageArr;
+        timer.stop((long) squaresPerCol * resolution);
+        return brightness;
     }
 
+    /*
+     * Writes the brightness of a row of the image, packed as by Color.getRGB from the given offset,
+     * to its place in the padded base plane.
+     */
+    private void setRow(int row, int[] rgb, int offset){
+        long planeRow = (long) (row + this.layout.getRowOffset()) * this.widthWithPadding + this.layout.getColOffset();
+        for (int j = 0; j < this.width; j++){
+            this.basePlane.set(planeRow + j, Image.turnToGrey(rgb[offset + j]) / MAX_RGB);
+        }
+    }
 
+    private void imagePadding(){
+        StageTimer timer = PipelineMetrics.start(Stage.PADDING);
+        double whiteBrightness = Image.turnToGrey(WHITE) / MAX_RGB;
+        long paddingPixels = 0;
+        for(int i = 0; i < this.heightWithPadding; i++){
+            long rowStart = (long) i * this.widthWithPadding;
+            for(int j = 0; j < this.widthWithPadding; j++){
+                if (this.layout.isPadding(i, j, 1)){
+                    this.basePlane.set(rowStart + j, whiteBrightness);
+                    paddingPixels++;
+                }
+            }
+        }
+        timer.stop(paddingPixels);
+    }
 
+    private static BufferedImage decode(String filename) throws IOException{
+        BufferedImage image = ImageIO.read(new File(filename));
+        if (image == null){
+            throw new IOException(UNSUPPORTED_FORMAT_MESSAGE);
+        }
+        return image;
+    }
 }
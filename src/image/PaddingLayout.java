@@ -0,0 +1,231 @@
+package image;
+
+import java.awt.*;
+import java.io.IOException;
+
+/**
+ * The geometry an image is padded with: the padded dimensions are the next powers of two and the
+ * image is centered in them, surrounded by white. PaddedImage pads with it, and it lets parts of the
+ * padded image, such as a horizontal strip of blocks, be computed straight from a TiledImageSource
+ * without padding or even decoding the whole image.
+ */
+public class PaddingLayout {
+    private static final int LOG_BASE = 2;
+    private static final int ARRAY_DIMENSION = 2;
+    private static final int MAX_RGB = 255;
+    private static final int WHITE = new Color(MAX_RGB, MAX_RGB, MAX_RGB).getRGB();
+    private static final double WHITE_BRIGHTNESS = Image.turnToGrey(WHITE) / MAX_RGB;
+
+    private final int width;
+    private final int height;
+    private final int paddedWidth;
+    private final int paddedHeight;
+    private final int rowOffset;
+    private final int colOffset;
+
+    /**
+     * Constructs the layout of an image of the given dimensions.
+     *
+     * @param width the width of the image.
+     * @param height the height of the image.
+     */
+    public PaddingLayout(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.paddedWidth = paddedSize(width);
+        this.paddedHeight = paddedSize(height);
+        this.rowOffset = (this.paddedHeight - height) / ARRAY_DIMENSION;
+        this.colOffset = (this.paddedWidth - width) / ARRAY_DIMENSION;
+    }
+
+    /**
+     * @param size a dimension of an image.
+     * @return the dimension after padding, the smallest power of two that is not smaller.
+     */
+    private static int paddedSize(int size) {
+        return (int) Math.pow(LOG_BASE, (int) Math.ceil(Math.log(size) / Math.log(LOG_BASE)));
+    }
+
+    /**
+     * @return the width of the padded image.
+     */
+    public int getPaddedWidth() {
+        return this.paddedWidth;
+    }
+
+    /**
+     * @return the height of the padded image.
+     */
+    public int getPaddedHeight() {
+        return this.paddedHeight;
+    }
+
+    /**
+     * @return the number of padding rows above the image.
+     */
+    public int getRowOffset() {
+        return this.rowOffset;
+    }
+
+    /**
+     * @return the number of padding columns left of the image.
+     */
+    public int getColOffset() {
+        return this.colOffset;
+    }
+
+    /**
+     * @param resolution the number of blocks in a row.
+     * @return the number of rows of blocks at the resolution.
+     */
+    public int blockRows(int resolution) {
+        return this.paddedHeight / (this.paddedWidth / resolution);
+    }
+
+    /**
+     * Calculates the brightness of a horizontal strip of blocks of the padded image, decoding only
+     * the rows of the image the strip covers, one row of blocks at a time.
+     *
+     * @param source the image file.
+     * @param viewX the left column of the padded part of the image (0 unless the image is cropped).
+     * @param viewY the top row of the padded part of the image.
+     * @param resolution the number of blocks in a row.
+     * @param firstBlockRow the first row of blocks of the strip.
+     * @param blockRowCount the number of rows of blocks in the strip.
+     * @return the brightness of every block of the strip, normalized to [0, 1].
+     * @throws IOException if an error occurs while decoding.
+     */
+    public double[][] stripBrightness(TiledImageSource source, int viewX, int viewY, int resolution,
+                                      int firstBlockRow, int blockRowCount) throws IOException {
+        return stripBrightness(source, viewX, viewY, resolution, firstBlockRow, blockRowCount, null);
+    }
+
+    /**
+     * Calculates the brightness of a horizontal strip of blocks like stripBrightness, counting uniform blocks.
+     * Blocks that are entirely padding are known to be white from the geometry alone and their pixels are
+     * never visited. The pixels of other blocks are first compared to the first one; a uniform block takes
+     * the brightness of that color without summing its pixels, and in the rest the brightness of a pixel
+     * is only calculated when its color differs from the pixel before it.
+     *
+     * @param source the image file.
+     * @param viewX the left column of the padded part of the image (0 unless the image is cropped).
+     * @param viewY the top row of the padded part of the image.
+     * @param resolution the number of blocks in a row.
+     * @param firstBlockRow the first row of blocks of the strip.
+     * @param blockRowCount the number of rows of blocks in the strip.
+     * @param stats the statistics to count the blocks in, or null.
+     * @return the brightness of every block of the strip, normalized to [0, 1].
+     * @throws IOException if an error occurs while decoding.
+     */
+    public double[][] stripBrightness(TiledImageSource source, int viewX, int viewY, int resolution,
+                                      int firstBlockRow, int blockRowCount, UniformBlockStats stats)
+            throws IOException {
+        int squareSize = this.paddedWidth / resolution;
+        double blockPixels = (double) squareSize * squareSize;
+        double[][] brightness = new double[blockRowCount][resolution];
+        for (int i = 0; i < blockRowCount; i++) {
+            int firstPaddedRow = (firstBlockRow + i) * squareSize;
+            int firstSourceRow = Math.max(0, firstPaddedRow - this.rowOffset);
+            int endSourceRow = Math.min(this.height, firstPaddedRow + squareSize - this.rowOffset);
+            int sourceRowCount = Math.max(0, endSourceRow - firstSourceRow);
+            int[] sourceRows = sourceRowCount > 0 ?
+                    source.readRegion(viewX, viewY + firstSourceRow, this.width, sourceRowCount) : new int[0];
+            for (int j = 0; j < resolution; j++) {
+                if (isPadding(firstPaddedRow, j * squareSize, squareSize)) {
+                    brightness[i][j] = WHITE_BRIGHTNESS;
+                    if (stats != null) {
+                        stats.countPaddingBlock();
+                    }
+                    continue;
+                }
+                int topRow = firstPaddedRow - this.rowOffset - firstSourceRow;
+                int leftCol = j * squareSize - this.colOffset;
+                int firstRgb = rgbAt(sourceRows, sourceRowCount, topRow, leftCol);
+                boolean uniform = isUniform(sourceRows, sourceRowCount, topRow, leftCol, squareSize, firstRgb);
+                if (uniform) {
+                    brightness[i][j] = Image.turnToGrey(firstRgb) / MAX_RGB;
+                } else {
+                    brightness[i][j] = blockSum(sourceRows, sourceRowCount, topRow, leftCol, squareSize) / blockPixels;
+                }
+                if (stats != null) {
+                    stats.countBlock(uniform);
+                }
+            }
+        }
+        return brightness;
+    }
+
+    /*
+     * Compares the pixels of a block to its first one and stops at the first that differs, so a
+     * uniform block costs an int comparison per pixel and is never summed.
+     */
+    private boolean isUniform(int[] sourceRows, int sourceRowCount, int topRow, int leftCol, int squareSize,
+                              int firstRgb) {
+        for (int row = topRow; row < topRow + squareSize; row++) {
+            for (int col = leftCol; col < leftCol + squareSize; col++) {
+                if (rgbAt(sourceRows, sourceRowCount, row, col) != firstRgb) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Sums the brightness of the pixels of a block, only converting a pixel when its color differs
+     * from the pixel before it.
+     */
+    private double blockSum(int[] sourceRows, int sourceRowCount, int topRow, int leftCol, int squareSize) {
+        double sum = 0;
+        int lastRgb = rgbAt(sourceRows, sourceRowCount, topRow, leftCol);
+        double lastBrightness = Image.turnToGrey(lastRgb) / MAX_RGB;
+        for (int row = topRow; row < topRow + squareSize; row++) {
+            for (int col = leftCol; col < leftCol + squareSize; col++) {
+                int rgb = rgbAt(sourceRows, sourceRowCount, row, col);
+                if (rgb != lastRgb) {
+                    lastRgb = rgb;
+                    lastBrightness = Image.turnToGrey(rgb) / MAX_RGB;
+                }
+                sum += lastBrightness;
+            }
+        }
+        return sum;
+    }
+
+    /*
+     * The color of a pixel of the decoded rows, or white where the block covers padding.
+     */
+    private int rgbAt(int[] sourceRows, int sourceRowCount, int sourceRow, int sourceCol) {
+        if (sourceRow < 0 || sourceRow >= sourceRowCount || sourceCol < 0 || sourceCol >= this.width) {
+            return WHITE;
+        }
+        return sourceRows[sourceRow * this.width + sourceCol];
+    }
+
+    /**
+     * Whether a block of the padded image lies entirely outside the image, and so is white.
+     *
+     * @param resolution the number of blocks in a row.
+     * @param blockRow the row of the block.
+     * @param blockCol the column of the block.
+     * @return true if the block is entirely padding.
+     */
+    public boolean isPaddingBlock(int resolution, int blockRow, int blockCol) {
+        int squareSize = this.paddedWidth / resolution;
+        return isPadding(blockRow * squareSize, blockCol * squareSize, squareSize);
+    }
+
+    /**
+     * Whether the square whose top left corner is at the given row and column of the padded image lies
+     * entirely outside the image.
+     *
+     * @param paddedRow the top row of the square in the padded image.
+     * @param paddedCol the left column of the square in the padded image.
+     * @param squareSize the side of the square, 1 for a single pixel.
+     * @return true if the square is entirely padding.
+     */
+    boolean isPadding(int paddedRow, int paddedCol, int squareSize) {
+        return paddedRow + squareSize <= this.rowOffset || paddedRow >= this.rowOffset + this.height ||
+                paddedCol + squareSize <= this.colOffset || paddedCol >= this.colOffset + this.width;
+    }
+}
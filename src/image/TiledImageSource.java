@@ -0,0 +1,362 @@
+package image;
+
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Random access to the pixels of an image file, without decoding the whole image.
+ * Only the header is read when the source is opened. Regions are decoded tile by tile through
+ * ImageReadParam.setSourceRegion, and the most recently used tiles are cached, so reading a region
+ * next to a previous one, as when panning, reuses the tiles they share. The missing tiles of a tile
+ * row are decoded in a single read, since formats like JPEG scan the file up to the region anyway.
+ * <p>
+ * Regions can be read from several threads at once. Every read borrows one of a bounded pool of image
+ * readers, each with its own stream over the file, so threads reading different tiles decode in parallel,
+ * while a thread that needs a tile another thread is decoding waits for it instead of decoding it again.
+ * The number of cached tiles is set when the source is opened, so callers that know how many rows they
+ * read at once can bound its memory (see tilesFor).
+ */
+public class TiledImageSource implements AutoCloseable {
+    private static final int TILE_SIZE = 512;
+    private static final int DEFAULT_CACHED_TILES = 64;
+    private static final int DEFAULT_READERS = 1;
+    private static final int IMAGE_INDEX = 0;
+    private static final int TILE_ROW_SHIFT = 32;
+    private static final String CANT_READ_MESSAGE = "Can't read input file!";
+    private static final String UNSUPPORTED_FORMAT_MESSAGE = "Unsupported image format!";
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int maxReaders;
+    private final Map<Long, CompletableFuture<int[]>> tileCache;
+    private final Deque<ImageReader> idleReaders = new ArrayDeque<>();
+    private final List<ImageReader> openReaders = new ArrayList<>();
+    private boolean closed = false;
+
+    /**
+     * Opens an image file and reads its dimensions, with a cache of 64 tiles and a single reader.
+     *
+     * @param filename the path to the image file.
+     * @throws IOException if the file cannot be read or its format is not supported.
+     */
+    public TiledImageSource(String filename) throws IOException {
+        this(filename, DEFAULT_CACHED_TILES, DEFAULT_READERS);
+    }
+
+    /**
+     * Opens an image file and reads its dimensions.
+     *
+     * @param filename the path to the image file.
+     * @param maxCachedTiles the number of decoded tiles to keep, at least 1.
+     * @param maxReaders the number of readers that may decode at the same time, at least 1.
+     * @throws IOException if the file cannot be read or its format is not supported.
+     */
+    public TiledImageSource(String filename, int maxCachedTiles, int maxReaders) throws IOException {
+        this.file = new File(filename);
+        if (!this.file.canRead()) {
+            throw new IOException(CANT_READ_MESSAGE);
+        }
+        ImageReader reader = openReader(this.file);
+        try {
+            this.width = reader.getWidth(IMAGE_INDEX);
+            this.height = reader.getHeight(IMAGE_INDEX);
+        } catch (IOException | RuntimeException e) {
+            dispose(reader);
+            throw e;
+        }
+        this.maxReaders = maxReaders;
+        this.openReaders.add(reader);
+        this.idleReaders.push(reader);
+        this.tileCache = new LinkedHashMap<>(maxCachedTiles, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<int[]>> eldest) {
+                return size() > maxCachedTiles;
+            }
+        };
+    }
+
+    /**
+     * Calculates how many tiles a cache must hold to keep every tile of any region of the given size,
+     * wherever the region lies in the image.
+     *
+     * @param regionWidth the width of the region.
+     * @param regionHeight the height of the region.
+     * @return the number of tiles the region can overlap.
+     */
+    public static int tilesFor(int regionWidth, int regionHeight) {
+        return ((regionWidth + TILE_SIZE - 1) / TILE_SIZE + 1) * ((regionHeight + TILE_SIZE - 1) / TILE_SIZE + 1);
+    }
+
+    /**
+     * @return the width of the image.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * @return the height of the image.
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Reads the pixels of a region of the image, decoding only the tiles it overlaps that are not cached.
+     *
+     * @param x the left column of the region.
+     * @param y the top row of the region.
+     * @param regionWidth the width of the region.
+     * @param regionHeight the height of the region.
+     * @return the pixels of the region row by row, packed as by Color.getRGB.
+     * @throws IOException if an error occurs while decoding.
+     */
+    public int[] readRegion(int x, int y, int regionWidth, int regionHeight) throws IOException {
+        StageTimer timer = PipelineMetrics.start(Stage.DECODE);
+        int[] pixels = new int[regionWidth * regionHeight];
+        Rectangle region = new Rectangle(x, y, regionWidth, regionHeight);
+        int firstTileCol = x / TILE_SIZE;
+        int lastTileCol = (x + regionWidth - 1) / TILE_SIZE;
+        for (int tileRow = y / TILE_SIZE; tileRow * TILE_SIZE < y + regionHeight; tileRow++) {
+            int[][] rowTiles = getRowTiles(tileRow, firstTileCol, lastTileCol);
+            for (int tileCol = firstTileCol; tileCol <= lastTileCol; tileCol++) {
+                copyTile(rowTiles[tileCol - firstTileCol], tileRow, tileCol, region, pixels);
+            }
+        }
+        timer.stop((long) regionWidth * regionHeight);
+        return pixels;
+    }
+
+    /**
+     * Reads a region of the image subsampled by a factor, keeping every factor-th pixel of every
+     * factor-th row, through ImageReadParam.setSourceSubsampling. The region is decoded straight from
+     * the file and its tiles are not cached, so a coarse preview of a large image costs a fraction of
+     * the memory of the full pixels.
+     *
+     * @param region the region of the image to read.
+     * @param factor the subsampling factor, at least 1.
+     * @return the kept pixels row by row, packed as by Color.getRGB, (region.width + factor - 1) / factor
+     *         in a row and (region.height + factor - 1) / factor rows.
+     * @throws IOException if an error occurs while decoding.
+     */
+    public int[] readSubsampled(Rectangle region, int factor) throws IOException {
+        StageTimer timer = PipelineMetrics.start(Stage.DECODE);
+        int subsampledWidth = (region.width + factor - 1) / factor;
+        int subsampledHeight = (region.height + factor - 1) / factor;
+        ImageReader reader = borrowReader();
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(factor, factor, 0, 0);
+            BufferedImage image = reader.read(IMAGE_INDEX, param);
+            int[] pixels = image.getRGB(0, 0, subsampledWidth, subsampledHeight, null, 0, subsampledWidth);
+            timer.stop((long) subsampledWidth * subsampledHeight);
+            return pixels;
+        } finally {
+            returnReader(reader);
+        }
+    }
+
+    /**
+     * Closes the image file and drops the cached tiles. No region may be read while it is closed.
+     */
+    @Override
+    public void close() {
+        synchronized (this.tileCache) {
+            this.tileCache.clear();
+        }
+        synchronized (this.idleReaders) {
+            this.closed = true;
+            for (ImageReader reader : this.openReaders) {
+                dispose(reader);
+            }
+            this.openReaders.clear();
+            this.idleReaders.clear();
+            this.idleReaders.notifyAll();
+        }
+    }
+
+    private void copyTile(int[] tile, int tileRow, int tileCol, Rectangle region, int[] pixels) {
+        int tileLeft = tileCol * TILE_SIZE;
+        int tileTop = tileRow * TILE_SIZE;
+        int tileWidth = Math.min(TILE_SIZE, this.width - tileLeft);
+        int tileHeight = Math.min(TILE_SIZE, this.height - tileTop);
+        int fromRow = Math.max(region.y, tileTop);
+        int toRow = Math.min(region.y + region.height, tileTop + tileHeight);
+        int fromCol = Math.max(region.x, tileLeft);
+        int toCol = Math.min(region.x + region.width, tileLeft + tileWidth);
+        for (int i = fromRow; i < toRow; i++) {
+            System.arraycopy(tile, (i - tileTop) * tileWidth + fromCol - tileLeft, pixels,
+                    (i - region.y) * region.width + fromCol - region.x, toCol - fromCol);
+        }
+    }
+
+    /*
+     * Gets the tiles of a tile row between two tile columns. The tiles missing from the cache are claimed
+     * by putting pending futures in their place, the span between the first and the last claimed tile is
+     * decoded in one read, and the tiles other threads claimed are waited for.
+     */
+    private int[][] getRowTiles(int tileRow, int firstTileCol, int lastTileCol) throws IOException {
+        List<CompletableFuture<int[]>> rowFutures = new ArrayList<>();
+        boolean[] claimed = new boolean[lastTileCol - firstTileCol + 1];
+        int firstClaimed = lastTileCol + 1;
+        int lastClaimed = firstTileCol - 1;
+        synchronized (this.tileCache) {
+            for (int tileCol = firstTileCol; tileCol <= lastTileCol; tileCol++) {
+                CompletableFuture<int[]> tile = this.tileCache.get(tileKey(tileRow, tileCol));
+                if (tile == null) {
+                    tile = new CompletableFuture<>();
+                    this.tileCache.put(tileKey(tileRow, tileCol), tile);
+                    claimed[tileCol - firstTileCol] = true;
+                    firstClaimed = Math.min(firstClaimed, tileCol);
+                    lastClaimed = tileCol;
+                }
+                rowFutures.add(tile);
+            }
+        }
+        if (firstClaimed <= lastClaimed) {
+            decodeSpan(tileRow, firstClaimed, lastClaimed, firstTileCol, claimed, rowFutures);
+        }
+        int[][] rowTiles = new int[rowFutures.size()][];
+        for (int i = 0; i < rowTiles.length; i++) {
+            rowTiles[i] = awaitTile(rowFutures.get(i));
+        }
+        return rowTiles;
+    }
+
+    private void decodeSpan(int tileRow, int firstClaimed, int lastClaimed, int firstTileCol, boolean[] claimed,
+                            List<CompletableFuture<int[]>> rowFutures) throws IOException {
+        int spanLeft = firstClaimed * TILE_SIZE;
+        int spanTop = tileRow * TILE_SIZE;
+        int spanWidth = Math.min((lastClaimed + 1) * TILE_SIZE, this.width) - spanLeft;
+        int spanHeight = Math.min(TILE_SIZE, this.height - spanTop);
+        ImageReader reader = null;
+        try {
+            reader = borrowReader();
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(spanLeft, spanTop, spanWidth, spanHeight));
+            BufferedImage span = reader.read(IMAGE_INDEX, param);
+            for (int tileCol = firstClaimed; tileCol <= lastClaimed; tileCol++) {
+                if (claimed[tileCol - firstTileCol]) {
+                    int tileWidth = Math.min(TILE_SIZE, this.width - tileCol * TILE_SIZE);
+                    rowFutures.get(tileCol - firstTileCol).complete(span.getRGB(tileCol * TILE_SIZE - spanLeft, 0,
+                            tileWidth, spanHeight, null, 0, tileWidth));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this.tileCache) {
+                for (int tileCol = firstClaimed; tileCol <= lastClaimed; tileCol++) {
+                    if (claimed[tileCol - firstTileCol]) {
+                        this.tileCache.remove(tileKey(tileRow, tileCol), rowFutures.get(tileCol - firstTileCol));
+                        rowFutures.get(tileCol - firstTileCol).completeExceptionally(e);
+                    }
+                }
+            }
+            throw e;
+        } finally {
+            if (reader != null) {
+                returnReader(reader);
+            }
+        }
+    }
+
+    /*
+     * Takes an idle reader, opens a new one if fewer than maxReaders are open, or waits for one.
+     */
+    private ImageReader borrowReader() throws IOException {
+        synchronized (this.idleReaders) {
+            while (true) {
+                if (this.closed) {
+                    throw new IOException(CANT_READ_MESSAGE);
+                }
+                if (!this.idleReaders.isEmpty()) {
+                    return this.idleReaders.pop();
+                }
+                if (this.openReaders.size() < this.maxReaders) {
+                    ImageReader reader = openReader(this.file);
+                    this.openReaders.add(reader);
+                    return reader;
+                }
+                try {
+                    this.idleReaders.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    private void returnReader(ImageReader reader) {
+        synchronized (this.idleReaders) {
+            if (!this.closed) {
+                this.idleReaders.push(reader);
+                this.idleReaders.notifyAll();
+            }
+        }
+    }
+
+    private static int[] awaitTile(CompletableFuture<int[]> tile) throws IOException {
+        try {
+            return tile.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static ImageReader openReader(File file) throws IOException {
+        ImageInputStream inputStream = ImageIO.createImageInputStream(file);
+        Iterator<ImageReader> readers = inputStream == null ? null : ImageIO.getImageReaders(inputStream);
+        if (readers == null || !readers.hasNext()) {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+            throw new IOException(UNSUPPORTED_FORMAT_MESSAGE);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(inputStream, false, true);
+        return reader;
+    }
+
+    private static void dispose(ImageReader reader) {
+        Object input = reader.getInput();
+        reader.dispose();
+        try {
+            if (input instanceof ImageInputStream) {
+                ((ImageInputStream) input).close();
+            }
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    private static long tileKey(int tileRow, int tileCol) {
+        return ((long) tileRow << TILE_ROW_SHIFT) | tileCol;
+    }
+}
@@ -0,0 +1,46 @@
+package image;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the blocks PaddingLayout computed the brightness of, and how many of them were uniform,
+ * a single color all over, or entirely padding.
+ */
+public final class UniformBlockStats {
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder uniformBlocks = new LongAdder();
+    private final LongAdder paddingBlocks = new LongAdder();
+
+    void countBlock(boolean uniform) {
+        this.blocks.increment();
+        if (uniform) {
+            this.uniformBlocks.increment();
+        }
+    }
+
+    void countPaddingBlock() {
+        this.paddingBlocks.increment();
+        countBlock(true);
+    }
+
+    /**
+     * @return the number of blocks counted.
+     */
+    public long getBlocks() {
+        return this.blocks.sum();
+    }
+
+    /**
+     * @return the number of blocks of a single color, padding blocks included.
+     */
+    public long getUniformBlocks() {
+        return this.uniformBlocks.sum();
+    }
+
+    /**
+     * @return the number of blocks that are entirely padding.
+     */
+    public long getPaddingBlocks() {
+        return this.paddingBlocks.sum();
+    }
+}
@@ -10,12 +10,16 @@ import java.awt.image.BufferedImage;
  * https://dzone.com/articles/ascii-art-generator-java
  * Adaptations made by Dan Nirel and again by Rachel Behar.
  * The class converts characters to a binary "image" (2D array of booleans).
+ * Many characters can be converted at once, in which case they are drawn into a shared atlas image
+ * with a single font and graphics context, which is what makes large Unicode charsets affordable.
  */
 public class CharConverter {
     private static final double X_OFFSET_FACTOR = 0.2;
     private static final double Y_OFFSET_FACTOR = 0.75;
     private static final String FONT_NAME = "Courier New";
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
+    private static final int ATLAS_GLYPHS_PER_ROW = 16;
+    private static final int ATLAS_GLYPHS = ATLAS_GLYPHS_PER_ROW * ATLAS_GLYPHS_PER_ROW;
 
     /**
      * Renders a given character, according to how it looks in the font specified in the
@@ -33,6 +37,55 @@ public class CharConverter {
         return matrix;
     }
 
+    /**
+     * Renders the given characters like convertToBoolArray does, batching them into atlas images.
+     * Characters the font cannot display are drawn with the logical monospaced font instead.
+     *
+     * @param chars the characters to render.
+     * @return the binary image of every character, in the order of the given characters.
+     */
+    public static boolean[][][] convertToBoolArrays(char[] chars) {
+        boolean[][][] matrices = new boolean[chars.length][][];
+        Font font = new Font(FONT_NAME, Font.PLAIN, DEFAULT_PIXEL_RESOLUTION);
+        Font fallbackFont = new Font(Font.MONOSPACED, Font.PLAIN, DEFAULT_PIXEL_RESOLUTION);
+        for (int first = 0; first < chars.length; first += ATLAS_GLYPHS) {
+            int count = Math.min(ATLAS_GLYPHS, chars.length - first);
+            renderAtlas(chars, first, count, font, fallbackFont, matrices);
+        }
+        return matrices;
+    }
+
+    private static void renderAtlas(char[] chars, int first, int count, Font font, Font fallbackFont,
+                                    boolean[][][] matrices) {
+        int atlasWidth = ATLAS_GLYPHS_PER_ROW * DEFAULT_PIXEL_RESOLUTION;
+        int atlasHeight = ((count + ATLAS_GLYPHS_PER_ROW - 1) / ATLAS_GLYPHS_PER_ROW) * DEFAULT_PIXEL_RESOLUTION;
+        BufferedImage atlas = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = atlas.getGraphics();
+        int xOffset = (int)Math.round(DEFAULT_PIXEL_RESOLUTION *X_OFFSET_FACTOR);
+        int yOffset = (int)Math.round(DEFAULT_PIXEL_RESOLUTION *Y_OFFSET_FACTOR);
+        for (int i = 0; i < count; i++) {
+            char c = chars[first + i];
+            int left = (i % ATLAS_GLYPHS_PER_ROW) * DEFAULT_PIXEL_RESOLUTION;
+            int top = (i / ATLAS_GLYPHS_PER_ROW) * DEFAULT_PIXEL_RESOLUTION;
+            g.setFont(font.canDisplay(c) ? font : fallbackFont);
+            g.setClip(left, top, DEFAULT_PIXEL_RESOLUTION, DEFAULT_PIXEL_RESOLUTION);
+            g.drawString(Character.toString(c), left + xOffset, top + yOffset);
+        }
+        g.dispose();
+        int[] pixels = atlas.getRGB(0, 0, atlasWidth, atlasHeight, null, 0, atlasWidth);
+        for (int i = 0; i < count; i++) {
+            int left = (i % ATLAS_GLYPHS_PER_ROW) * DEFAULT_PIXEL_RESOLUTION;
+            int top = (i / ATLAS_GLYPHS_PER_ROW) * DEFAULT_PIXEL_RESOLUTION;
+            boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
+            for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
+                for(int x = 0 ; x < DEFAULT_PIXEL_RESOLUTION ; x++) {
+                    matrix[y][x] = pixels[(top + y) * atlasWidth + left + x] == 0; //is the color black
+                }
+            }
+            matrices[first + i] = matrix;
+        }
+    }
+
     private static BufferedImage getBufferedImage(char c, String fontName, int pixelsPerRow) {
         String charStr = Character.toString(c);
         Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
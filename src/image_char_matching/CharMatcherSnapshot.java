@@ -0,0 +1,192 @@
+package image_char_matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable, precomputed view of a charset, used to match brightness values to characters.
+ * The normalized brightness of the characters is kept sorted in a primitive array, and a bucket table
+ * over [0, 1] points into it, so a match costs a table lookup and a binary search within one bucket,
+ * constant time for evenly spread charsets and logarithmic in the levels of the bucket for clustered
+ * ones (values outside [0, 1] fall back to a binary search over all the levels). Snapshots are published by
+ * SubImgCharMatcher and can be shared freely between threads.
+ */
+public final class CharMatcherSnapshot {
+    /**
+     * The snapshot of an empty charset.
+     */
+    static final CharMatcherSnapshot EMPTY = new CharMatcherSnapshot(Collections.emptySortedMap());
+    private static final int MIN_BUCKETS = 64;
+    private static final int MAX_BUCKETS = 1 << 16;
+    private static final int BUCKETS_PER_LEVEL = 4;
+
+    private final SortedMap<Character, Double> charBrightnessMap;
+    private final SortedSet<Character> charSet;
+    private final char[] levelChars;
+    private final double[] levels;
+    private final int[] bucketStarts;
+
+    /**
+     * Constructs a snapshot of the given charset.
+     *
+     * @param charBrightnessMap the raw brightness of every character of the charset.
+     */
+    public CharMatcherSnapshot(SortedMap<Character, Double> charBrightnessMap) {
+        this.charBrightnessMap = Collections.unmodifiableSortedMap(new TreeMap<>(charBrightnessMap));
+        this.charSet = Collections.unmodifiableSortedSet(new TreeSet<>(charBrightnessMap.keySet()));
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double brightness : charBrightnessMap.values()) {
+            min = Math.min(min, brightness);
+            max = Math.max(max, brightness);
+        }
+        List<Map.Entry<Character, Double>> entries = new ArrayList<>();
+        for (Map.Entry<Character, Double> entry : charBrightnessMap.entrySet()) {
+            double normalized = max == min ? 0 : (entry.getValue() - min) / (max - min);
+            entries.add(Map.entry(entry.getKey(), normalized));
+        }
+        // the map iterates in char order and the sort is stable, so among characters of equal
+        // brightness the smallest one comes first and is the only one kept
+        entries.sort(Map.Entry.comparingByValue());
+        char[] chars = new char[entries.size()];
+        double[] values = new double[entries.size()];
+        int count = 0;
+        for (Map.Entry<Character, Double> entry : entries) {
+            if (count > 0 && values[count - 1] == entry.getValue()) {
+                continue;
+            }
+            chars[count] = entry.getKey();
+            values[count] = entry.getValue();
+            count++;
+        }
+        this.levelChars = Arrays.copyOf(chars, count);
+        this.levels = Arrays.copyOf(values, count);
+        // a power of two bucket count keeps brightness * buckets exact, so the bucket of a value never
+        // starts above it
+        int buckets = Math.min(MAX_BUCKETS, Math.max(MIN_BUCKETS,
+                Integer.highestOneBit(Math.max(1, count * BUCKETS_PER_LEVEL - 1)) << 1));
+        this.bucketStarts = new int[buckets];
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            this.bucketStarts[bucket] = binarySearchLowerBound((double) bucket / buckets, 0, count);
+        }
+    }
+
+    /**
+     * Gets the set of characters of the snapshot.
+     *
+     * @return an unmodifiable sorted set of the characters.
+     */
+    public SortedSet<Character> getCharSet() {
+        return this.charSet;
+    }
+
+    /**
+     * Gets the raw brightness of the characters the snapshot was built from, so an equal snapshot
+     * can be rebuilt elsewhere without rendering glyphs.
+     *
+     * @return an unmodifiable map from every character to its raw brightness.
+     */
+    public SortedMap<Character, Double> getCharBrightnessMap() {
+        return this.charBrightnessMap;
+    }
+
+    /**
+     * Gets the character whose normalized brightness is closest to the given brightness.
+     * Ties are broken in favor of the smaller character.
+     *
+     * @param brightness Brightness value to match.
+     * @return Character that closely matches the brightness.
+     */
+    public char getCharByImageBrightness(double brightness) {
+        return this.levelChars[levelIndexOf(brightness)];
+    }
+
+    /**
+     * Gets the number of distinct brightness levels of the charset. Characters of equal brightness
+     * share a single level.
+     *
+     * @return the number of levels.
+     */
+    public int levelCount() {
+        return this.levels.length;
+    }
+
+    /**
+     * Gets the level whose normalized brightness is closest to the given brightness, the level
+     * getCharByImageBrightness picks its character from.
+     *
+     * @param brightness Brightness value to match.
+     * @return the index of the level, between 0 and levelCount() - 1.
+     */
+    public int levelIndexOf(double brightness) {
+        if (this.levels.length == 0) {
+            throw new IllegalStateException("char set is empty");
+        }
+        int index = lowerBound(brightness);
+        if (index == 0) {
+            return 0;
+        }
+        if (index == this.levels.length) {
+            return this.levels.length - 1;
+        }
+        double belowDistance = Math.abs(this.levels[index - 1] - brightness);
+        double aboveDistance = Math.abs(this.levels[index] - brightness);
+        if (belowDistance < aboveDistance) {
+            return index - 1;
+        }
+        if (aboveDistance < belowDistance) {
+            return index;
+        }
+        return this.levelChars[index - 1] < this.levelChars[index] ? index - 1 : index;
+    }
+
+    /**
+     * @param level the index of a level.
+     * @return the character of the level.
+     */
+    public char levelChar(int level) {
+        return this.levelChars[level];
+    }
+
+    /**
+     * @param level the index of a level.
+     * @return the normalized brightness of the level.
+     */
+    public double levelBrightness(int level) {
+        return this.levels[level];
+    }
+
+    /*
+     * The bucket of the brightness bounds the search to the levels between its start and the start of
+     * the next bucket, so levels crowded into one bucket cost a binary search rather than a scan.
+     */
+    private int lowerBound(double brightness) {
+        if (brightness >= 0 && brightness < 1) {
+            int bucket = (int) (brightness * this.bucketStarts.length);
+            int end = bucket + 1 < this.bucketStarts.length ? this.bucketStarts[bucket + 1] : this.levels.length;
+            return binarySearchLowerBound(brightness, this.bucketStarts[bucket], end);
+        }
+        return binarySearchLowerBound(brightness, 0, this.levels.length);
+    }
+
+    private int binarySearchLowerBound(double brightness, int from, int to) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.levels[mid] < brightness) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
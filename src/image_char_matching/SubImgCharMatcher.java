@@ -3,18 +3,26 @@ package image_char_matching;
 import exceptions.CharNotInCharSetException;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * SubImgCharMatcher class provides functionality to match sub-images to characters based on brightness.
+ * It acts as a builder of immutable CharMatcherSnapshot objects: every edit of the charset is applied
+ * to a copy of it, the snapshot of the copy is built, glyphs rendered, within the edit, and both are
+ * then published together through a single volatile field, so the charset a reader sees is always
+ * the one of the snapshot it sees. Reading the charset or the snapshot never locks, and
+ * conversions that hold a snapshot are never affected by edits made while they run.
+ * Glyph brightness is cached for the lifetime of the program, and the snapshot of the charset the
+ * matcher was constructed with is only built when it is first needed, so printing the charset never
+ * touches AWT.
  */
 
 public class SubImgCharMatcher {
     private static final char MIN_CHAR = ' ';
     private static final char MAX_CHAR = '~';
     private static final String CHAR_NOT_IN_SET_MESSAGE = "char set does not contain ";
-    private SortedMap<Character, Double> charBrightnessMapNormalized;
-    private SortedMap<Character, Double> charBrightnessMap;
-    double min, max;
+    private static final Map<Character, Double> GLYPH_BRIGHTNESS_CACHE = new ConcurrentHashMap<>();
+    private volatile PublishedCharset published;
 
     /**
      * Constructor for SubImgCharMatcher.
@@ -22,24 +30,42 @@ public class SubImgCharMatcher {
      * @param charset Array of characters to be used for matching.
      */
     public SubImgCharMatcher(char[] charset){
-        this.charBrightnessMap = new TreeMap<>();
+        SortedSet<Character> initialCharSet = new TreeSet<>();
         for (char c :charset ){
-            this.charBrightnessMap.put(c, computeCharBrightness(c));
+            initialCharSet.add(c);
         }
+        this.published = new PublishedCharset(Collections.unmodifiableSortedSet(initialCharSet), null);
+    }
 
-        this.min = Collections.min(charBrightnessMap.values());
-        this.max = Collections.max(charBrightnessMap.values());
-        this.normalizeCharBrightness();
+    /**
+     * Renders every ASCII character into the shared glyph brightness cache ahead of time.
+     */
+    public static void preloadGlyphs(){
+        char[] chars = new char[MAX_CHAR - MIN_CHAR + 1];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (MIN_CHAR + i);
+        }
+        renderMissingGlyphs(chars);
+    }
 
+    /**
+     * Gets the latest published snapshot of the charset. Only the first call on a matcher that was
+     * never edited builds it.
+     *
+     * @return the current snapshot.
+     */
+    public CharMatcherSnapshot snapshot(){
+        CharMatcherSnapshot current = this.published.snapshot;
+        return current != null ? current : initialSnapshot();
     }
 
     /**
-     * Gets the set of characters in the normalized brightness map.
+     * Gets the set of characters in the charset.
      *
      * @return Set of characters.
      */
     public Set<Character> getCharSet(){
-        return this.charBrightnessMapNormalized.keySet();
+        return this.published.charSet;
     }
 
 
@@ -48,24 +74,10 @@ public class SubImgCharMatcher {
      *
      * @param c Character to be added.
      */
-    public void addChar(char c){
-        double charBrightness = computeCharBrightness(c);
-        boolean changedMinMax = charBrightness > this.max || charBrightness < this.min;
-        this.charBrightnessMap.put(c, computeCharBrightness(c));
-        if (charBrightness > this.max){
-            this.max = charBrightness;
-        }
-        if (charBrightness < this.min){
-            this.min = charBrightness;
-        }
-        if (changedMinMax){
-            normalizeCharBrightness();
-        }
-        else{
-
-            double normalizedCharValue = (charBrightness - this.min) / (this.max - this.min);
-            this.charBrightnessMapNormalized.put(c, normalizedCharValue);
-        }
+    public synchronized void addChar(char c){
+        SortedSet<Character> edited = new TreeSet<>(this.published.charSet);
+        edited.add(c);
+        publish(edited);
     }
 
     /**
@@ -74,55 +86,31 @@ public class SubImgCharMatcher {
      * @param c Character to be removed.
      * @throws CharNotInCharSetException if the character is not found in the charset.
      */
-    public void removeChar(char c) throws CharNotInCharSetException{
-        if (!charBrightnessMap.containsKey(c)){
+    public synchronized void removeChar(char c) throws CharNotInCharSetException{
+        SortedSet<Character> edited = new TreeSet<>(this.published.charSet);
+        if (!edited.remove(c)){
 
             throw new CharNotInCharSetException(CHAR_NOT_IN_SET_MESSAGE + c);
         }
-        boolean changedMinMax = charBrightnessMap.get(c) > this.max || charBrightnessMap.get(c) < this.min;
-        if(charBrightnessMap.get(c) == this.min){
-            this.min = Collections.min(charBrightnessMap.values());
-        }
-        if(charBrightnessMap.get(c) == this.max){
-            this.max = Collections.max(charBrightnessMap.values());
-        }
-        this.charBrightnessMap.remove(c);
-        if (changedMinMax){
-            normalizeCharBrightness();
-        }
-        else{
-            this.charBrightnessMapNormalized.remove(c);
-        }
+        publish(edited);
     }
 
     /**
      * Resets the charset, clearing all characters.
      */
-    public void resetChar(){
-        this.charBrightnessMap.clear();
-        this.charBrightnessMapNormalized.clear();
-        this.min = Integer.MAX_VALUE;
-        this.max = Integer.MIN_VALUE;
+    public synchronized void resetChar(){
+        publish(new TreeSet<>());
     }
 
     /**
-     * Gets a character that matches the given brightness.
+     * Gets a character that matches the given brightness, using the current snapshot.
      *
      * @param brightness Brightness value to match.
      * @return Character that closely matches the brightness.
      */
     public char getCharByImageBrightness(double brightness)
     {
-        double minDistance = Float.POSITIVE_INFINITY;
-        char minChar = this.charBrightnessMapNormalized.firstKey();
-        for(Map.Entry<Character, Double> entry : this.charBrightnessMapNormalized.entrySet()){
-            double curDistance = Math.abs(entry.getValue() - brightness);
-            if (curDistance < minDistance){
-                minDistance = curDistance;
-                minChar = entry.getKey();
-            }
-        }
-        return minChar;
+        return snapshot().getCharByImageBrightness(brightness);
     }
 
     /**
@@ -131,24 +119,34 @@ public class SubImgCharMatcher {
      * @param start Starting character of the range.
      * @param end Ending character of the range.
      */
-    public void addRangeChars(char start, char end)
+    public synchronized void addRangeChars(char start, char end)
     {
-        for (char i = start; i <= end; i++) {
-            this.addChar(i);
+        SortedSet<Character> edited = new TreeSet<>(this.published.charSet);
+        for (int i = start; i <= end; i++) {
+            edited.add((char) i);
         }
+        publish(edited);
     }
 
     /**
      * Removes a range of characters from the charset.
+     * The characters before the first one that is not in the charset are still removed.
      *
      * @param start Starting character of the range.
      * @param end Ending character of the range.
      * @throws CharNotInCharSetException if any character in the range is not found in the charset.
      */
-    public void removeRangeChars(char start, char end) throws CharNotInCharSetException
+    public synchronized void removeRangeChars(char start, char end) throws CharNotInCharSetException
     {
-        for (char i = start; i <= end; i++) {
-            this.removeChar(i);
+        SortedSet<Character> edited = new TreeSet<>(this.published.charSet);
+        try {
+            for (int i = start; i <= end; i++) {
+                if (!edited.remove((char) i)){
+                    throw new CharNotInCharSetException(CHAR_NOT_IN_SET_MESSAGE + (char) i);
+                }
+            }
+        } finally {
+            publish(edited);
         }
     }
 
@@ -159,13 +157,69 @@ public class SubImgCharMatcher {
         this.addRangeChars(MIN_CHAR, MAX_CHAR);
     }
 
-    private double computeCharBrightness(char c){
-        boolean [][]charBoolArray = CharConverter.convertToBoolArray(c);
+    private synchronized CharMatcherSnapshot initialSnapshot(){
+        PublishedCharset current = this.published;
+        if (current.snapshot == null){
+            current = new PublishedCharset(current.charSet, buildSnapshot(current.charSet));
+            this.published = current;
+        }
+        return current.snapshot;
+    }
+
+    /*
+     * Publishes an edited copy of the charset with its snapshot. Edits that leave the charset as it was
+     * publish nothing.
+     */
+    private void publish(SortedSet<Character> edited){
+        if (edited.equals(this.published.charSet)){
+            return;
+        }
+        this.published = new PublishedCharset(Collections.unmodifiableSortedSet(edited), buildSnapshot(edited));
+    }
+
+    private static CharMatcherSnapshot buildSnapshot(SortedSet<Character> charSet){
+        if (charSet.isEmpty()){
+            return CharMatcherSnapshot.EMPTY;
+        }
+        char[] chars = new char[charSet.size()];
+        int index = 0;
+        for (char c : charSet){
+            chars[index++] = c;
+        }
+        renderMissingGlyphs(chars);
+        SortedMap<Character, Double> charBrightnessMap = new TreeMap<>();
+        for (char c : chars){
+            charBrightnessMap.put(c, GLYPH_BRIGHTNESS_CACHE.get(c));
+        }
+        return new CharMatcherSnapshot(charBrightnessMap);
+    }
+
+    /*
+     * Renders all the given glyphs that are not cached yet in one batch.
+     */
+    private static void renderMissingGlyphs(char[] chars){
+        StringBuilder missing = new StringBuilder();
+        for (char c : chars){
+            if (!GLYPH_BRIGHTNESS_CACHE.containsKey(c)){
+                missing.append(c);
+            }
+        }
+        if (missing.length() == 0){
+            return;
+        }
+        char[] missingChars = missing.toString().toCharArray();
+        boolean[][][] charBoolArrays = CharConverter.convertToBoolArrays(missingChars);
+        for (int i = 0; i < missingChars.length; i++){
+            GLYPH_BRIGHTNESS_CACHE.put(missingChars[i], computeCharBrightness(charBoolArrays[i]));
+        }
+    }
+
+    private static double computeCharBrightness(boolean [][]charBoolArray){
         int whitePixels = countWhitePixels(charBoolArray);
         return whitePixels / Math.pow(CharConverter.DEFAULT_PIXEL_RESOLUTION, 2);
     }
 
-    private int countWhitePixels(boolean [][]charBoolArray){
+    private static int countWhitePixels(boolean [][]charBoolArray){
         int numWhitePixels = 0;
         for(int i = 0; i < charBoolArray.length; i++){
             for(int j = 0; j <charBoolArray[i].length; j++){
@@ -177,14 +231,17 @@ public class SubImgCharMatcher {
         return numWhitePixels;
     }
 
-    private void normalizeCharBrightness(){
-        this.charBrightnessMapNormalized = new TreeMap<>();
-        for(Map.Entry<Character, Double> entry : this.charBrightnessMap.entrySet()){
-            double normalizedCharValue = (entry.getValue() - this.min) / (this.max - this.min);
-            this.charBrightnessMapNormalized.put(entry.getKey(), normalizedCharValue);
-        }
+    /*
+     * A charset and its snapshot, published as one. The snapshot is null until the initial charset
+     * of a matcher that was never edited is first needed.
+     */
+    private static final class PublishedCharset{
+        private final SortedSet<Character> charSet;
+        private final CharMatcherSnapshot snapshot;
 
+        private PublishedCharset(SortedSet<Character> charSet, CharMatcherSnapshot snapshot){
+            this.charSet = charSet;
+            this.snapshot = snapshot;
+        }
     }
-
-
 }
@@ -0,0 +1,191 @@
+package pipeline_metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Registry of the per stage statistics of the conversion pipeline.
+ * Collection is off by default (turn it on with -Dascii_art.metrics=true or setEnabled), in which
+ * case starting a stage costs a single field read. The statistics are also published as JMX MBeans
+ * and every measured run is emitted as a JFR event when a recording is active.
+ * Loading this class does not touch java.lang.management, so it is cheap to use during startup.
+ */
+public final class PipelineMetrics {
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final String ENABLED_PROPERTY = "ascii_art.metrics";
+    private static final String MBEAN_NAME_FORMAT = "ascii_art:type=Stage,name=%s";
+    private static final String REPORT_HEADER = String.format("%-12s%10s%14s%14s%16s",
+            "stage", "calls", "items", "total ms", "allocated KB");
+    private static final String REPORT_LINE_FORMAT = "%-12s%10d%14d%14.2f%16d";
+    private static final long BYTES_PER_KB = 1024;
+    private static final String REPORT_DISABLED_MESSAGE = "Metrics are disabled.";
+    private static final String REPORT_STARTUP_FORMAT = "time to first prompt: %d ms";
+    private static final long NOT_MARKED = -1;
+
+    private static final Map<Stage, StageStats> STATS = new EnumMap<>(Stage.class);
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private static boolean registered = false;
+    private static volatile long firstPromptMillis = NOT_MARKED;
+
+    static {
+        for (Stage stage : Stage.values()) {
+            STATS.put(stage, new StageStats());
+        }
+        if (enabled) {
+            registerMBeans();
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * @return true if the stages are currently measured.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the measuring on or off. Turning it on registers the MBeans on first use.
+     *
+     * @param enabled whether to measure the stages.
+     */
+    public static void setEnabled(boolean enabled) {
+        if (enabled) {
+            registerMBeans();
+        }
+        PipelineMetrics.enabled = enabled;
+    }
+
+    /**
+     * Starts measuring a run of the given stage.
+     *
+     * @param stage the stage about to run.
+     * @return the timer to stop when the stage is done.
+     */
+    public static StageTimer start(Stage stage) {
+        if (!enabled) {
+            return StageTimer.NO_OP;
+        }
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage.name();
+            event.begin();
+        } else {
+            event = null;
+        }
+        return new StageTimer(STATS.get(stage), event, System.nanoTime(), currentThreadAllocatedBytes());
+    }
+
+    /**
+     * Records the wall clock time at which the first prompt was shown. Only the first call counts,
+     * and it is cheap enough to make unconditionally during startup.
+     */
+    public static void markFirstPrompt() {
+        if (firstPromptMillis == NOT_MARKED) {
+            firstPromptMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return the milliseconds from the JVM start to the first prompt, or -1 if it was not shown yet.
+     */
+    public static long getTimeToFirstPromptMillis() {
+        if (firstPromptMillis == NOT_MARKED) {
+            return NOT_MARKED;
+        }
+        return firstPromptMillis - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    /**
+     * @param stage a pipeline stage.
+     * @return the statistics collected for the stage.
+     */
+    public static StageStats getStats(Stage stage) {
+        return STATS.get(stage);
+    }
+
+    /**
+     * Clears the statistics of all the stages.
+     */
+    public static void reset() {
+        for (StageStats stats : STATS.values()) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * Formats a table with a line of statistics per stage.
+     *
+     * @return the formatted report.
+     */
+    public static String report() {
+        StringBuilder builder = new StringBuilder();
+        if (!enabled) {
+            builder.append(REPORT_DISABLED_MESSAGE).append(System.lineSeparator());
+        }
+        long timeToFirstPrompt = getTimeToFirstPromptMillis();
+        if (timeToFirstPrompt != NOT_MARKED) {
+            builder.append(String.format(REPORT_STARTUP_FORMAT, timeToFirstPrompt)).append(System.lineSeparator());
+        }
+        builder.append(REPORT_HEADER);
+        for (Map.Entry<Stage, StageStats> entry : STATS.entrySet()) {
+            StageStats stats = entry.getValue();
+            builder.append(System.lineSeparator()).append(String.format(REPORT_LINE_FORMAT,
+                    entry.getKey().name().toLowerCase(), stats.getCalls(), stats.getItems(),
+                    stats.getTotalNanos() / NANOS_PER_MILLI, stats.getAllocatedBytes() / BYTES_PER_KB));
+        }
+        return builder.toString();
+    }
+
+    static long currentThreadAllocatedBytes() {
+        if (!AllocationCounter.SUPPORTED) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) AllocationCounter.THREAD_MX_BEAN).getCurrentThreadAllocatedBytes();
+    }
+
+    /*
+     * Holds the thread MXBean, so it is only looked up once a stage is actually measured.
+     */
+    private static final class AllocationCounter {
+        private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+        private static final boolean SUPPORTED = initAllocationTracking();
+
+        private static boolean initAllocationTracking() {
+            if (!(THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean)) {
+                return false;
+            }
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (!bean.isThreadAllocatedMemorySupported()) {
+                return false;
+            }
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return true;
+        }
+    }
+
+    private static synchronized void registerMBeans() {
+        if (registered) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Map.Entry<Stage, StageStats> entry : STATS.entrySet()) {
+                ObjectName name = new ObjectName(String.format(MBEAN_NAME_FORMAT, entry.getKey().name()));
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(entry.getValue(), name);
+                }
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+        registered = true;
+    }
+}
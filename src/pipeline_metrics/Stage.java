@@ -0,0 +1,14 @@
+package pipeline_metrics;
+
+/**
+ * The stages of the image to ASCII art conversion pipeline that are measured by PipelineMetrics.
+ */
+public enum Stage {
+    DECODE,
+    PADDING,
+    DIVISION,
+    BRIGHTNESS,
+    TONE_MAPPING,
+    MATCHING,
+    OUTPUT
+}
@@ -0,0 +1,29 @@
+package pipeline_metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event emitted for every measured run of a pipeline stage.
+ */
+@Name("ascii_art.Stage")
+@Label("ASCII Art Stage")
+@Category("ASCII Art")
+@Description("A single run of a stage of the image to ASCII art conversion pipeline")
+@StackTrace(false)
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Items")
+    long items;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+}
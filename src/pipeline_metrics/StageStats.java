@@ -0,0 +1,82 @@
+package pipeline_metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low overhead accumulator of the wall time, allocated bytes and processed items of a single stage.
+ * Counters are striped so concurrent recordings from several threads do not contend.
+ */
+public class StageStats implements StageStatsMBean {
+    private static final int HISTOGRAM_BUCKETS = 32;
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final int LONG_BITS = 64;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder items = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    void record(long nanos, long bytes, long itemCount) {
+        calls.increment();
+        items.add(itemCount);
+        totalNanos.add(nanos);
+        if (bytes > 0) {
+            allocatedBytes.add(bytes);
+        }
+        histogram.incrementAndGet(bucketOf(nanos));
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = Math.max(1, nanos / NANOS_PER_MICRO);
+        int bucket = LONG_BITS - 1 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getItems() {
+        return items.sum();
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    @Override
+    public double getMeanNanos() {
+        long count = getCalls();
+        return count == 0 ? 0 : (double) getTotalNanos() / count;
+    }
+
+    @Override
+    public long[] getHistogram() {
+        long[] buckets = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            buckets[i] = histogram.get(i);
+        }
+        return buckets;
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        items.reset();
+        totalNanos.reset();
+        allocatedBytes.reset();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+    }
+}
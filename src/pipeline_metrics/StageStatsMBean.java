@@ -0,0 +1,42 @@
+package pipeline_metrics;
+
+/**
+ * JMX management interface exposing the collected statistics of a single pipeline stage.
+ */
+public interface StageStatsMBean {
+    /**
+     * @return the number of times the stage was run.
+     */
+    long getCalls();
+
+    /**
+     * @return the number of items (pixels, blocks, chars...) the stage processed.
+     */
+    long getItems();
+
+    /**
+     * @return the total wall time spent in the stage, in nanoseconds.
+     */
+    long getTotalNanos();
+
+    /**
+     * @return the total number of bytes allocated on the heap by the stage.
+     */
+    long getAllocatedBytes();
+
+    /**
+     * @return the mean wall time of a single run of the stage, in nanoseconds.
+     */
+    double getMeanNanos();
+
+    /**
+     * @return the run count of every wall time histogram bucket, bucket i counting runs that took
+     * between 2^i and 2^(i+1) microseconds.
+     */
+    long[] getHistogram();
+
+    /**
+     * Clears all the statistics of the stage.
+     */
+    void reset();
+}
@@ -0,0 +1,40 @@
+package pipeline_metrics;
+
+/**
+ * Measures a single run of a pipeline stage. Obtained from PipelineMetrics.start and finished
+ * with stop. When the metrics are disabled a shared instance that does nothing is handed out.
+ */
+public class StageTimer {
+    static final StageTimer NO_OP = new StageTimer(null, null, 0, 0);
+
+    private final StageStats stats;
+    private final StageEvent event;
+    private final long startNanos;
+    private final long startBytes;
+
+    StageTimer(StageStats stats, StageEvent event, long startNanos, long startBytes) {
+        this.stats = stats;
+        this.event = event;
+        this.startNanos = startNanos;
+        this.startBytes = startBytes;
+    }
+
+    /**
+     * Finishes the measurement and records it.
+     *
+     * @param items the number of items the stage processed.
+     */
+    public void stop(long items) {
+        if (this.stats == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - this.startNanos;
+        long bytes = PipelineMetrics.currentThreadAllocatedBytes() - this.startBytes;
+        this.stats.record(nanos, bytes, items);
+        if (this.event != null) {
+            this.event.items = items;
+            this.event.allocatedBytes = bytes;
+            this.event.commit();
+        }
+    }
+}